@@ -0,0 +1,218 @@
+package justinethier;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for AvlTree, run side by side with java.util.TreeSet on the
+ * same key streams.
+ *
+ * The point operations (contains, remove, findMin/findMax and the mixed
+ * workload) run against a tree pre-loaded with <code>size</code> keys and
+ * report the cost of a single operation. The insert and serializeInfix
+ * benchmarks report the cost of building, or walking, a whole tree.
+ *
+ * @author Justin Ethier
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class AvlTreeBenchmark {
+  /**
+   * The operations being compared, over either implementation.
+   */
+  interface OrderedSet {
+    boolean insert(Integer x);
+    boolean contains(Integer x);
+    boolean remove(Integer x);
+    Integer findMin();
+    Integer findMax();
+    String serializeInfix();
+  }
+
+  static final class AvlSet implements OrderedSet {
+    private final AvlTree<Integer> tree = new AvlTree<Integer>();
+    public boolean insert(Integer x) { return tree.insert(x); }
+    public boolean contains(Integer x) { return tree.contains(x); }
+    public boolean remove(Integer x) { return tree.remove(x); }
+    public Integer findMin() { return tree.findMin(); }
+    public Integer findMax() { return tree.findMax(); }
+    public String serializeInfix() { return tree.serializeInfix(); }
+  }
+
+  static final class JdkSet implements OrderedSet {
+    private final TreeSet<Integer> set = new TreeSet<Integer>();
+    public boolean insert(Integer x) { return set.add(x); }
+    public boolean contains(Integer x) { return set.contains(x); }
+    public boolean remove(Integer x) { return set.remove(x); }
+    public Integer findMin() { return set.isEmpty() ? null : set.first(); }
+    public Integer findMax() { return set.isEmpty() ? null : set.last(); }
+    public String serializeInfix() {
+      StringBuilder str = new StringBuilder();
+      for (Integer x : set)
+        str.append(x.toString()).append(' ');
+      return str.toString();
+    }
+  }
+
+  @Param({"AVL", "TREESET"})
+  public String impl;
+
+  @Param({"1000", "100000", "1000000"})
+  public int size;
+
+  @Param({"UNIFORM", "SEQUENTIAL", "ZIPFIAN", "CLUSTERED"})
+  public KeyDistribution distribution;
+
+  /**
+   * Share of contains calls in the mixed workload; the rest is split
+   * evenly between insert and remove
+   */
+  @Param({"90"})
+  public int readPercent;
+
+  /**
+   * Keys loaded into the tree
+   */
+  private Integer[] keys;
+
+  /**
+   * Keys probed by the point operations: half are loaded keys, sampled
+   * as often as they were loaded, and half are keys in the same range
+   * that were not loaded, so probes both hit and miss at every size
+   */
+  private Integer[] probes;
+
+  /**
+   * Operation for each probe in the mixed workload:
+   * 0 = contains, 1 = insert, 2 = remove
+   */
+  private byte[] ops;
+
+  private OrderedSet set;
+  private int next;
+
+  private static final int PROBES = 1 << 16;
+
+  @Setup
+  public void setup() {
+    keys = distribution.keys(size, 42);
+    probes = probes(keys, new Random(43));
+    ops = new byte[PROBES];
+    Random r = new Random(44);
+    for (int i = 0; i < PROBES; i++) {
+      int p = r.nextInt(100);
+      ops[i] = (byte) (p < readPercent ? 0 : (p - readPercent) % 2 + 1);
+    }
+    set = load();
+  }
+
+  private static Integer[] probes(Integer[] keys, Random r) {
+    Set<Integer> loaded = new HashSet<Integer>(Arrays.asList(keys));
+    int max = 0;
+    for (Integer x : keys)
+      max = Math.max(max, x);
+    // Leaves at least keys.length values that cannot all be loaded
+    int range = max + keys.length + 1;
+
+    Integer[] probes = new Integer[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      if (r.nextBoolean()) {
+        probes[i] = keys[r.nextInt(keys.length)];
+      }
+      else {
+        int x;
+        do {
+          x = r.nextInt(range);
+        } while (loaded.contains(x));
+        probes[i] = x;
+      }
+    }
+    return probes;
+  }
+
+  private OrderedSet newSet() {
+    return "AVL".equals(impl) ? new AvlSet() : new JdkSet();
+  }
+
+  private OrderedSet load() {
+    OrderedSet s = newSet();
+    for (Integer x : keys)
+      s.insert(x);
+    return s;
+  }
+
+  private Integer probe() {
+    return probes[next++ & (PROBES - 1)];
+  }
+
+  @Benchmark
+  public OrderedSet insert() {
+    return load();
+  }
+
+  @Benchmark
+  public boolean contains() {
+    return set.contains(probe());
+  }
+
+  /**
+   * Removes a key and puts it back, so the tree keeps its size.
+   */
+  @Benchmark
+  public boolean remove() {
+    Integer x = probe();
+    boolean removed = set.remove(x);
+    if (removed)
+      set.insert(x);
+    return removed;
+  }
+
+  @Benchmark
+  public Integer findMin() {
+    return set.findMin();
+  }
+
+  @Benchmark
+  public Integer findMax() {
+    return set.findMax();
+  }
+
+  @Benchmark
+  public boolean mixed() {
+    int i = next++ & (PROBES - 1);
+    Integer x = probes[i];
+    switch (ops[i]) {
+      case 1:
+        return set.insert(x);
+      case 2:
+        return set.remove(x);
+      default:
+        return set.contains(x);
+    }
+  }
+
+  @Benchmark
+  public String serializeInfix() {
+    return set.serializeInfix();
+  }
+}
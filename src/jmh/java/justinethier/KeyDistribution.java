@@ -0,0 +1,93 @@
+package justinethier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Key streams used by the benchmarks.
+ *
+ * Every distribution is generated from a fixed seed, so all
+ * implementations and all runs see exactly the same keys.
+ *
+ * @author Justin Ethier
+ */
+public enum KeyDistribution {
+  /**
+   * Keys drawn uniformly from a range ten times the key count
+   */
+  UNIFORM {
+    int[] generate(int count, Random r) {
+      int[] keys = new int[count];
+      for (int i = 0; i < count; i++)
+        keys[i] = r.nextInt(count * 10);
+      return keys;
+    }
+  },
+
+  /**
+   * Ascending keys; the worst case for rotations
+   */
+  SEQUENTIAL {
+    int[] generate(int count, Random r) {
+      int[] keys = new int[count];
+      for (int i = 0; i < count; i++)
+        keys[i] = i;
+      return keys;
+    }
+  },
+
+  /**
+   * Zipf-distributed (s = 0.99) ranks over count distinct keys; a few hot
+   * keys account for most of the stream
+   */
+  ZIPFIAN {
+    int[] generate(int count, Random r) {
+      double[] cdf = new double[count];
+      double sum = 0;
+      for (int i = 0; i < count; i++) {
+        sum += 1.0 / Math.pow(i + 1, 0.99);
+        cdf[i] = sum;
+      }
+
+      // Scatter the ranks so the hot keys are not also the smallest ones
+      int[] scatter = UNIFORM.generate(count, r);
+      int[] keys = new int[count];
+      for (int i = 0; i < count; i++) {
+        int rank = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+        keys[i] = scatter[rank < 0 ? Math.min(-rank - 1, count - 1) : rank];
+      }
+      return keys;
+    }
+  },
+
+  /**
+   * Runs of consecutive keys starting at random points
+   */
+  CLUSTERED {
+    int[] generate(int count, Random r) {
+      int[] keys = new int[count];
+      int next = 0;
+      for (int i = 0; i < count; i++) {
+        if (i % 64 == 0)
+          next = r.nextInt(count * 10);
+        keys[i] = next++;
+      }
+      return keys;
+    }
+  };
+
+  abstract int[] generate(int count, Random r);
+
+  /**
+   * @param count Number of keys
+   * @param seed  Random seed
+   * @return Key stream of the given length
+   */
+  Integer[] keys(int count, long seed) {
+    int[] raw = generate(count, new Random(seed));
+    Integer[] keys = new Integer[count];
+    for (int i = 0; i < count; i++)
+      keys[i] = raw[i];
+    return keys;
+  }
+}
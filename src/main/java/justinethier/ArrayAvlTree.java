@@ -0,0 +1,348 @@
+package justinethier;
+
+import java.lang.StringBuilder;
+import java.util.Arrays;
+
+/**
+ * AVL Tree whose nodes live in parallel arrays instead of separate
+ * {@link AvlTree.AvlNode} objects.
+ *
+ * Each node is an int handle indexing the <code>keys</code>,
+ * <code>left</code>, <code>right</code> and <code>height</code> arrays,
+ * so a tree of n elements costs four array slots per element instead of
+ * one small object apiece. Slots released by <code>remove</code> are
+ * kept on a free list (threaded through <code>left</code>) and reused by
+ * later insertions.
+ *
+ * @author Justin Ethier
+ */
+class ArrayAvlTree<T extends Comparable<? super T>> {
+  /**
+   * Handle used to represent a missing child
+   */
+  private static final int NIL = -1;
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private Object[] keys;
+  private int[] left;
+  private int[] right;
+  private int[] height;
+
+  /**
+   * Handle of the root node, or NIL if the tree is empty
+   */
+  private int root;
+
+  /**
+   * Head of the free list, or NIL if no slot has been released
+   */
+  private int free;
+
+  /**
+   * Number of slots ever handed out; slots beyond this are unused
+   */
+  private int used;
+
+  private int size;
+
+  /**
+   * Avl Tree Constructor.
+   *
+   * Creates an empty tree
+   */
+  public ArrayAvlTree (){
+    this (DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an empty tree with room for the given number of nodes
+   * before the node arrays have to grow.
+   *
+   * @param capacity Initial node capacity
+   */
+  public ArrayAvlTree (int capacity){
+    capacity = Math.max (capacity, 1);
+    keys = new Object[capacity];
+    left = new int[capacity];
+    right = new int[capacity];
+    height = new int[capacity];
+    makeEmpty ();
+  }
+
+  @SuppressWarnings("unchecked")
+  private T key (int t){
+    return (T) keys[t];
+  }
+
+  private int height (int t){
+    return t == NIL ? -1 : height[t];
+  }
+
+  /**
+   * Allocate a leaf node, reusing a released slot when one is available.
+   *
+   * @param x Element to store
+   * @return Handle of the new node
+   */
+  private int allocate (T x){
+    int t;
+    if (free != NIL){
+      t = free;
+      free = left[t];
+    }
+    else {
+      if (used == keys.length){
+        int capacity = keys.length + (keys.length >> 1) + 1;
+        keys = Arrays.copyOf (keys, capacity);
+        left = Arrays.copyOf (left, capacity);
+        right = Arrays.copyOf (right, capacity);
+        height = Arrays.copyOf (height, capacity);
+      }
+      t = used++;
+    }
+    keys[t] = x;
+    left[t] = NIL;
+    right[t] = NIL;
+    height[t] = 0;
+    size++;
+    return t;
+  }
+
+  /**
+   * Return a node's slot to the free list.
+   *
+   * @param t Handle of the node to release
+   */
+  private void release (int t){
+    keys[t] = null;
+    left[t] = free;
+    free = t;
+    size--;
+  }
+
+  /**
+   * Insert an element into the tree.
+   *
+   * @param x Element to insert into the tree
+   * @return True - Success, the Element was added.
+   *         False - Error, the element was a duplicate.
+   */
+  public boolean insert (T x){
+    int before = size;
+    root = insert (x, root);
+    return size != before;
+  }
+
+  private int insert (T x, int t){
+    if (t == NIL)
+      return allocate (x);
+
+    // The recursive call may grow (and so replace) the node arrays,
+    // hence the child handle is stored only after it returns.
+    int cmp = x.compareTo (key (t)), child;
+    if (cmp < 0){
+      child = insert (x, left[t]);
+      left[t] = child;
+    }
+    else if (cmp > 0){
+      child = insert (x, right[t]);
+      right[t] = child;
+    }
+    else
+      return t; // Duplicate; nothing to do
+
+    return balance (t);
+  }
+
+  /**
+   * Remove from the tree. Nothing is done if x is not found.
+   *
+   * @param x the item to remove.
+   * @return True if the item was found and removed
+   */
+  public boolean remove (T x){
+    int before = size;
+    root = remove (x, root);
+    return size != before;
+  }
+
+  private int remove (T x, int t){
+    if (t == NIL)
+      return NIL;
+
+    int cmp = x.compareTo (key (t));
+    if (cmp < 0)
+      left[t] = remove (x, left[t]);
+    else if (cmp > 0)
+      right[t] = remove (x, right[t]);
+    else if (left[t] == NIL || right[t] == NIL){
+      int child = left[t] == NIL ? right[t] : left[t];
+      release (t);
+      return child;
+    }
+    else {
+      keys[t] = keys[findMin (right[t])];
+      right[t] = remove (key (t), right[t]);
+    }
+
+    return balance (t);
+  }
+
+  /**
+   * Search for an element within the tree.
+   *
+   * @param x Element to find
+   * @return True if the element is found, false otherwise
+   */
+  public boolean contains (T x){
+    int t = root;
+    while (t != NIL){
+      int cmp = x.compareTo (key (t));
+      if (cmp < 0)
+        t = left[t];
+      else if (cmp > 0)
+        t = right[t];
+      else
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Find the smallest item in the tree.
+   * @return smallest item or null if empty.
+   */
+  public T findMin (){
+    if (isEmpty ()) return null;
+    return key (findMin (root));
+  }
+
+  /**
+   * Find the largest item in the tree.
+   * @return the largest item of null if empty.
+   */
+  public T findMax (){
+    if (isEmpty ()) return null;
+    int t = root;
+    while (right[t] != NIL)
+      t = right[t];
+    return key (t);
+  }
+
+  private int findMin (int t){
+    while (left[t] != NIL)
+      t = left[t];
+    return t;
+  }
+
+  /**
+   * @return Number of elements in the tree
+   */
+  public int size (){
+    return size;
+  }
+
+  /**
+   * Deletes all nodes from the tree.
+   *
+   * The node arrays keep their current capacity.
+   */
+  public void makeEmpty (){
+    Arrays.fill (keys, 0, used, null);
+    root = NIL;
+    free = NIL;
+    used = 0;
+    size = 0;
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return (root == NIL);
+  }
+
+  /**
+   * Serialize the tree to a string using an infix traversal.
+   *
+   * The walk uses an explicit stack of handles rather than recursion.
+   *
+   * @return String representation of the tree
+   */
+  public String serializeInfix (){
+    StringBuilder str = new StringBuilder ();
+    int[] stack = new int[height (root) + 1];
+    int depth = 0, t = root;
+    while (t != NIL || depth > 0){
+      while (t != NIL){
+        stack[depth++] = t;
+        t = left[t];
+      }
+      t = stack[--depth];
+      str.append (keys[t].toString ());
+      str.append (" ");
+      t = right[t];
+    }
+    return str.toString ();
+  }
+
+  /**
+   * Serialize the tree to a string using a prefix traversal.
+   *
+   * @return String representation of the tree
+   */
+  public String serializePrefix (){
+    StringBuilder str = new StringBuilder ();
+    int[] stack = new int[height (root) + 2];
+    int depth = 0;
+    if (root != NIL)
+      stack[depth++] = root;
+    while (depth > 0){
+      int t = stack[--depth];
+      str.append (keys[t].toString ());
+      str.append (" ");
+      if (right[t] != NIL)
+        stack[depth++] = right[t];
+      if (left[t] != NIL)
+        stack[depth++] = left[t];
+    }
+    return str.toString ();
+  }
+
+  private int balance (int t){
+    int diff = height (left[t]) - height (right[t]);
+    if (diff > 1){
+      if (height (left[left[t]]) < height (right[left[t]]))
+        left[t] = rotateWithRight (left[t]);
+      return rotateWithLeftChild (t);
+    }
+    if (diff < -1){
+      if (height (right[right[t]]) < height (left[right[t]]))
+        right[t] = rotateWithLeftChild (right[t]);
+      return rotateWithRight (t);
+    }
+    height[t] = Math.max (height (left[t]), height (right[t])) + 1;
+    return t;
+  }
+
+  private int rotateWithLeftChild (int father){
+    int lChild = left[father];
+    left[father] = right[lChild];
+    right[lChild] = father;
+    height[father] = Math.max (height (left[father]), height (right[father])) + 1;
+    height[lChild] = Math.max (height (left[lChild]), height[father]) + 1;
+    return lChild;
+  }
+
+  private int rotateWithRight (int father){
+    int rChild = right[father];
+    right[father] = left[rChild];
+    left[rChild] = father;
+    height[father] = Math.max (height (left[father]), height (right[father])) + 1;
+    height[rChild] = Math.max (height (right[rChild]), height[father]) + 1;
+    return rChild;
+  }
+}
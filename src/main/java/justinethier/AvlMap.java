@@ -0,0 +1,262 @@
+package justinethier;
+
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Sorted map built on the AvlTree nodes and rotations.
+ *
+ * Each key's node also holds its value, so replacing a value is a
+ * single descent that writes the node in place and never rebalances.
+ * Only adding or removing a key changes the shape of the tree.
+ *
+ * @author Justin Ethier
+ */
+class AvlMap<K, V> {
+  /**
+   * Tree node that carries a value along with its key
+   *
+   * @author Justin Ethier
+   */
+  static final class Entry<K, V> extends AvlTree.AvlNode<K> {
+    /**
+     * Value mapped to the node's key
+     */
+    V value;
+
+    Entry (K key){
+      super (key);
+    }
+  }
+
+  /**
+   * Key tree whose nodes are entries
+   */
+  private static final class EntryTree<K, V> extends AvlTree<K> {
+    EntryTree (Comparator<? super K> comparator){
+      super (comparator);
+    }
+
+    @Override
+    protected AvlNode<K> newNode (K key){
+      return new Entry<K, V> (key);
+    }
+
+    @SuppressWarnings ("unchecked")
+    Entry<K, V> find (K key){
+      return (Entry<K, V>) findNode (key);
+    }
+
+    @SuppressWarnings ("unchecked")
+    Entry<K, V> findOrInsert (K key){
+      return (Entry<K, V>) insertNode (key);
+    }
+
+    @SuppressWarnings ("unchecked")
+    Entry<K, V> unlink (K key){
+      return (Entry<K, V>) removeNode (key);
+    }
+  }
+
+  private final EntryTree<K, V> tree;
+
+  /**
+   * Creates an empty map ordered by the keys' natural ordering
+   */
+  public AvlMap (){
+    this (null);
+  }
+
+  /**
+   * Creates an empty map ordered by the given comparator
+   *
+   * @param comparator Key ordering, or null for the natural ordering
+   */
+  public AvlMap (Comparator<? super K> comparator){
+    tree = new EntryTree<K, V> (comparator);
+  }
+
+  /**
+   * Set the sink for the key tree's metrics events.
+   *
+   * @param metrics Metrics sink; AvlTreeMetrics.NONE to disable
+   */
+  public void setMetrics (AvlTreeMetrics metrics){
+    tree.setMetrics (metrics);
+  }
+
+  /**
+   * Look up the value for a key.
+   *
+   * @param key Key to find
+   * @return Value mapped to the key, or null if there is none
+   */
+  public V get (K key){
+    Entry<K, V> e = tree.find (key);
+    return e == null ? null : e.value;
+  }
+
+  /**
+   * Look up the value for a key.
+   *
+   * @param key          Key to find
+   * @param defaultValue Value to return if the key is not mapped
+   * @return Value mapped to the key, or defaultValue if there is none
+   */
+  public V getOrDefault (K key, V defaultValue){
+    Entry<K, V> e = tree.find (key);
+    return e == null ? defaultValue : e.value;
+  }
+
+  /**
+   * @param key Key to find
+   * @return True if the map contains the key
+   */
+  public boolean containsKey (K key){
+    return tree.contains (key);
+  }
+
+  /**
+   * Map a key to a value, replacing any previous value. Both cases take
+   * a single descent.
+   *
+   * @param key   Key to map
+   * @param value New value
+   * @return Previous value, or null if the key was not mapped
+   */
+  public V put (K key, V value){
+    Entry<K, V> e = tree.findOrInsert (key);
+    V old = e.value;
+    e.value = value;
+    return old;
+  }
+
+  /**
+   * Map a key to a value unless the key is already mapped.
+   *
+   * @param key   Key to map
+   * @param value Value to map it to if it is absent
+   * @return Current value, or null if the key was added
+   */
+  public V putIfAbsent (K key, V value){
+    int before = tree.size ();
+    Entry<K, V> e = tree.findOrInsert (key);
+    if (tree.size () != before){
+      e.value = value;
+      return null;
+    }
+    return e.value;
+  }
+
+  /**
+   * Compute a new value for a key from its current value, which is null
+   * if the key is not mapped. A null result removes the key.
+   *
+   * @param key      Key to update
+   * @param function Maps the key and current value to the new value
+   * @return The new value
+   */
+  public V compute (K key, BiFunction<? super K, ? super V, ? extends V> function){
+    Entry<K, V> e = tree.find (key);
+    V value = function.apply (key, e == null ? null : e.value);
+    if (value == null){
+      if (e != null)
+        tree.remove (key);
+    }
+    else if (e != null)
+      e.value = value;
+    else
+      tree.findOrInsert (key).value = value;
+    return value;
+  }
+
+  /**
+   * Map a key to the given value if it is absent, or else to the result
+   * of combining its current value with the given one. A null result
+   * removes the key.
+   *
+   * @param key      Key to update
+   * @param value    Value to map or combine
+   * @param function Combines the current value with the given one
+   * @return The new value
+   */
+  public V merge (K key, V value, BiFunction<? super V, ? super V, ? extends V> function){
+    int before = tree.size ();
+    Entry<K, V> e = tree.findOrInsert (key);
+    if (tree.size () != before){
+      e.value = value;
+      return value;
+    }
+    V merged = function.apply (e.value, value);
+    if (merged == null)
+      tree.remove (key);
+    else
+      e.value = merged;
+    return merged;
+  }
+
+  /**
+   * Remove a key and its value. Nothing is done if the key is not mapped.
+   *
+   * @param key Key to remove
+   * @return Value the key was mapped to, or null if it was not mapped
+   */
+  public V remove (K key){
+    Entry<K, V> e = tree.unlink (key);
+    return e == null ? null : e.value;
+  }
+
+  /**
+   * @return Smallest key, or null if the map is empty
+   */
+  public K firstKey (){
+    return tree.findMin ();
+  }
+
+  /**
+   * @return Largest key, or null if the map is empty
+   */
+  public K lastKey (){
+    return tree.findMax ();
+  }
+
+  /**
+   * @return Number of keys in the map
+   */
+  public int size (){
+    return tree.size ();
+  }
+
+  /**
+   * @return True if the map is empty
+   */
+  public boolean isEmpty (){
+    return tree.isEmpty ();
+  }
+
+  /**
+   * Remove every key from the map.
+   */
+  public void clear (){
+    tree.makeEmpty ();
+  }
+
+  /**
+   * Apply an action to each key and value, in ascending key order.
+   *
+   * @param action Action to apply
+   */
+  public void forEach (BiConsumer<? super K, ? super V> action){
+    forEach (tree.root, action);
+  }
+
+  @SuppressWarnings ("unchecked")
+  private void forEach (AvlTree.AvlNode<K> t, BiConsumer<? super K, ? super V> action){
+    while (t != null){
+      forEach (t.left, action);
+      action.accept (t.element, ((Entry<K, V>) t).value);
+      t = t.right;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package justinethier;
+
+import java.util.Comparator;
+
+/**
+ * AVL Tree that keeps a count of occurrences in each node, so repeated
+ * elements cost no extra memory.
+ *
+ * insert adds an occurrence and remove takes one away, unlinking the
+ * node when none are left. size, select, rank, rangeCount and iteration
+ * are all weighted by the counts, which makes select an exact
+ * percentile query over a stream with heavy duplication. The join-based
+ * set operations keep one node per distinct element and combine the
+ * counts: union adds them, intersection keeps the smaller and difference
+ * subtracts the other tree's count, dropping elements that reach zero.
+ * Their argument must also be an AvlMultiset; a set is rejected with an
+ * IllegalArgumentException before either tree is changed.
+ *
+ * @author Justin Ethier
+ */
+class AvlMultiset<T> extends AvlTree<T> {
+  /**
+   * Tree node holding a number of occurrences of its element
+   *
+   * @author Justin Ethier
+   */
+  static final class CountedNode<T> extends AvlNode<T> {
+    /**
+     * Number of occurrences of the element; always positive
+     */
+    int count = 1;
+
+    CountedNode (T theElement){
+      super (theElement);
+    }
+  }
+
+  /**
+   * Creates an empty multiset ordered by the elements' natural ordering
+   */
+  public AvlMultiset (){
+    super ();
+  }
+
+  /**
+   * Creates an empty multiset ordered by the given comparator
+   *
+   * @param comparator Element ordering, or null for the natural ordering
+   */
+  public AvlMultiset (Comparator<? super T> comparator){
+    super (comparator);
+  }
+
+  @Override
+  protected AvlNode<T> newNode (T x){
+    return new CountedNode<T> (x);
+  }
+
+  @Override
+  protected AvlTree<T> newTree (){
+    return new AvlMultiset<T> (comparator ());
+  }
+
+  @Override
+  protected int weight (AvlNode<T> t){
+    return ((CountedNode<T>) t).count;
+  }
+
+  @Override
+  protected boolean mergeNodes (int op, AvlNode<T> t, AvlNode<T> other){
+    CountedNode<T> n = (CountedNode<T>) t;
+    int count = ((CountedNode<T>) other).count;
+    switch (op){
+      case UNION:
+        n.count += count;
+        return true;
+      case INTERSECTION:
+        n.count = Math.min (n.count, count);
+        return true;
+      default:
+        n.count -= count;
+        return n.count > 0;
+    }
+  }
+
+  @Override
+  protected boolean isDistinct (){
+    return false;
+  }
+
+  @Override
+  protected boolean addDuplicate (AvlNode<T> t){
+    ((CountedNode<T>) t).count++;
+    return true;
+  }
+
+  @Override
+  protected boolean retainOnRemove (AvlNode<T> t){
+    CountedNode<T> n = (CountedNode<T>) t;
+    if (n.count == 1)
+      return false;
+    n.count--;
+    return true;
+  }
+
+  /**
+   * Add one occurrence of an element.
+   *
+   * @param x Element to insert into the multiset
+   * @return Always true
+   */
+  @Override
+  public boolean insert (T x){
+    return super.insert (x);
+  }
+
+  /**
+   * Count the occurrences of an element, in O(log n).
+   *
+   * @param x Element to count
+   * @return Number of occurrences; zero if x is not present
+   */
+  public int count (T x){
+    AvlNode<T> t = findNode (x);
+    return t == null ? 0 : weight (t);
+  }
+}
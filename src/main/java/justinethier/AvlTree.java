@@ -1,6 +1,37 @@
 package justinethier;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.lang.StringBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import justinethier.AvlTreeEvents.BulkOperationEvent;
+import justinethier.AvlTreeEvents.DeepSearchEvent;
+import justinethier.AvlTreeEvents.RotationEvent;
 
 /** 
  * Implementation of an AVL Tree, along with code to test insertions on the tree.
@@ -13,7 +44,7 @@ import java.lang.StringBuilder;
  *
  * @author Justin Ethier
  */
-class AvlTree<T extends Comparable<? super T>> {
+class AvlTree<T> implements Iterable<T> {
   /** 
    * AvlNode is a container class that is used to store each element 
    * (node) of an AVL tree. 
@@ -42,6 +73,11 @@ class AvlTree<T extends Comparable<? super T>> {
      */
     protected int      height;
     
+    /**
+     * Number of nodes in the subtree rooted at this node
+     */
+    protected int      size;
+    
     /**
      * Constructor; creates a node without any children
      * 
@@ -62,28 +98,277 @@ class AvlTree<T extends Comparable<? super T>> {
       element = theElement;
       left = lt;
       right = rt;
+      size = 1 + (lt == null ? 0 : lt.size) + (rt == null ? 0 : rt.size);
     }
   }
 
   public AvlNode<T> root;
   
-  // TODO: make these optional based on some sort of 'debug' flag?
-  // at the very least, make them read-only properties
-  public int countInsertions;
-  public int countSingleRotations;
-  public int countDoubleRotations;
+  /**
+   * Ordering of the elements, or null for their natural ordering
+   */
+  private final Comparator<? super T> comparator;
+  
+  /**
+   * Receives insert, remove, rotation and search events
+   */
+  private AvlTreeMetrics metrics = AvlTreeMetrics.NONE;
+  
+  /**
+   * Search path length above which a DeepSearchEvent is recorded
+   */
+  private int deepSearchThreshold = DEFAULT_DEEP_SEARCH_THRESHOLD;
+  
+  private static final int DEFAULT_DEEP_SEARCH_THRESHOLD =
+    Integer.getInteger ("justinethier.avltree.deepSearchThreshold", 32);
+  
+  /**
+   * Updates between search path checks, or zero for none, and updates
+   * left before the next check
+   */
+  private int sampleEvery, updatesUntilCheck;
+  
+  /**
+   * Scratch stack used by insert and remove
+   */
+  private AvlNode<T>[] path;
   
   /**
    * Avl Tree Constructor.
    * 
-   * Creates an empty tree
+   * Creates an empty tree ordered by the elements' natural ordering;
+   * the elements must be Comparable.
    */
   public AvlTree (){
+    this (null);
+  }
+  
+  /**
+   * Avl Tree Constructor.
+   * 
+   * Creates an empty tree ordered by the given comparator
+   * 
+   * @param comparator Element ordering, or null for the natural ordering
+   */
+  public AvlTree (Comparator<? super T> comparator){
     root = null;
-        
-    countInsertions = 0;
-    countSingleRotations = 0;
-    countDoubleRotations = 0;    
+    this.comparator = comparator;
+  }
+  
+  /**
+   * @return Ordering of the elements, or null for their natural ordering
+   */
+  public Comparator<? super T> comparator (){
+    return comparator;
+  }
+  
+  /**
+   * Compare two elements using the tree's ordering. Every search calls
+   * this exactly once per level and branches on the sign of the result.
+   * 
+   * @param a First element
+   * @param b Second element
+   * @return Negative, zero or positive as a is below, equal to or above b
+   */
+  @SuppressWarnings ("unchecked")
+  protected final int compare (T a, T b){
+    return comparator == null ? ((Comparable<? super T>) a).compareTo (b) : comparator.compare (a, b);
+  }
+  
+  /**
+   * Set the sink for this tree's metrics events.
+   * 
+   * @param metrics Metrics sink, or AvlTreeMetrics.NONE to stop recording
+   */
+  public void setMetrics (AvlTreeMetrics metrics){
+    this.metrics = metrics == null ? AvlTreeMetrics.NONE : metrics;
+  }
+  
+  /**
+   * @return The sink for this tree's metrics events
+   */
+  public AvlTreeMetrics getMetrics (){
+    return metrics;
+  }
+  
+  /**
+   * Set the search path length above which searches are reported to
+   * Java Flight Recorder as deep searches. The default is 32, or the
+   * value of the <code>justinethier.avltree.deepSearchThreshold</code>
+   * system property.
+   * 
+   * @param threshold Number of nodes visited
+   */
+  public void setDeepSearchThreshold (int threshold){
+    deepSearchThreshold = threshold;
+  }
+  
+  /**
+   * @return Search path length above which searches are reported
+   */
+  public int getDeepSearchThreshold (){
+    return deepSearchThreshold;
+  }
+  
+  /**
+   * Fill in the fields common to all of this tree's JFR events.
+   * 
+   * @param event Event about to be committed
+   */
+  private void describe (AvlTreeEvents.TreeEvent event){
+    event.treeId = System.identityHashCode (this);
+    event.size = size ();
+    event.height = height (root);
+  }
+  
+  /**
+   * Report a finished search to the metrics sink, and to JFR if it went
+   * deeper than the threshold.
+   * 
+   * @param event     Event begun when the search started
+   * @param operation Name of the searching operation
+   * @param length    Number of nodes visited
+   */
+  private void searched (DeepSearchEvent event, String operation, int length){
+    if (AvlTreeMetrics.ENABLED)
+      metrics.onSearchPath (length);
+    if (length > deepSearchThreshold && event.shouldCommit ()){
+      describe (event);
+      event.operation = operation;
+      event.depth = length;
+      event.threshold = deepSearchThreshold;
+      event.commit ();
+    }
+  }
+  
+  /**
+   * Report a finished whole-tree operation to JFR.
+   * 
+   * @param event     Event begun when the operation started
+   * @param operation Name of the operation
+   * @param inputSize Number of elements in the operation's inputs
+   */
+  private void bulkOperationDone (BulkOperationEvent event, String operation, long inputSize){
+    if (event.shouldCommit ()){
+      describe (event);
+      event.operation = operation;
+      event.inputSize = inputSize;
+      event.commit ();
+    }
+  }
+  
+  /**
+   * Build a tree from elements that are already in ascending order.
+   * 
+   * The tree is built bottom-up in O(n) time, perfectly balanced, with
+   * heights set directly and no rotations. The input is trusted; see
+   * {@link #fromSortedChecked(Comparable[])} to validate it.
+   * 
+   * @param sorted Strictly ascending elements
+   * @return New tree containing the elements
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> fromSorted(T[] sorted){
+    return build (Arrays.asList (sorted).iterator (), sorted.length);
+  }
+  
+  /**
+   * Build a tree from an iterator over elements in ascending order.
+   * 
+   * @param sorted Strictly ascending elements
+   * @return New tree containing the elements
+   * @see #fromSorted(Comparable[])
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> fromSorted(Iterator<? extends T> sorted){
+    List<T> buffer = new ArrayList<T> ();
+    while (sorted.hasNext ())
+      buffer.add (sorted.next ());
+    return build (buffer.iterator (), buffer.size ());
+  }
+  
+  /**
+   * Build a tree from a stream of elements in ascending order.
+   * 
+   * @param sorted Strictly ascending elements
+   * @return New tree containing the elements
+   * @see #fromSorted(Comparable[])
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> fromSorted(Stream<? extends T> sorted){
+    return fromSorted (sorted.iterator ());
+  }
+  
+  /**
+   * Build a tree from elements in ascending order, as fromSorted does,
+   * after checking that the input is strictly ascending.
+   * 
+   * @param sorted Strictly ascending elements
+   * @return New tree containing the elements
+   * @throws IllegalArgumentException if an element is not greater than
+   *         the one before it
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> fromSortedChecked(T[] sorted){
+    return fromSortedChecked (Arrays.asList (sorted).iterator ());
+  }
+  
+  /**
+   * Build a tree from an iterator over elements in ascending order,
+   * after checking that the input is strictly ascending.
+   * 
+   * @param sorted Strictly ascending elements
+   * @return New tree containing the elements
+   * @throws IllegalArgumentException if an element is not greater than
+   *         the one before it
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> fromSortedChecked(Iterator<? extends T> sorted){
+    List<T> buffer = new ArrayList<T> ();
+    T prev = null;
+    while (sorted.hasNext ()){
+      T x = sorted.next ();
+      if (prev != null && prev.compareTo (x) >= 0)
+        throw new IllegalArgumentException ("Input is not strictly ascending at index "
+                                            + buffer.size () + ": " + prev + ", " + x);
+      buffer.add (x);
+      prev = x;
+    }
+    return build (buffer.iterator (), buffer.size ());
+  }
+  
+  /**
+   * Build a tree from the first n elements of an ascending iterator.
+   * 
+   * @param sorted Strictly ascending elements
+   * @param n      Number of elements to take
+   * @return New tree containing the elements
+   */
+  private static <T extends Comparable<? super T>> AvlTree<T> build(Iterator<? extends T> sorted, int n){
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    
+    AvlTree<T> tree = new AvlTree<T> ();
+    tree.root = build (sorted, n, tree);
+    tree.bulkOperationDone (event, "fromSorted", n);
+    return tree;
+  }
+  
+  /**
+   * Internal bulk-load method; build a perfectly balanced subtree from
+   * the next n elements, taking them in order (left, root, right).
+   * 
+   * @param sorted Strictly ascending elements
+   * @param n      Number of elements in the subtree
+   * @param tree   Tree the subtree belongs to
+   * @return Root of the subtree
+   */
+  private static <T> AvlNode<T> build(Iterator<? extends T> sorted, int n, AvlTree<T> tree){
+    if (n == 0)
+      return null;
+    
+    int leftSize = (n - 1) / 2;
+    AvlNode<T> left = build (sorted, leftSize, tree);
+    AvlNode<T> t = new AvlNode<T> (sorted.next ());
+    t.left = left;
+    t.right = build (sorted, n - 1 - leftSize, tree);
+    tree.update (t);
+    return t;
   }
   
   /**
@@ -96,6 +381,85 @@ class AvlTree<T extends Comparable<? super T>> {
     return t == null ? -1 : t.height;
   }
   
+  /**
+   * Determine the number of elements in the subtree rooted at the given
+   * node, counting each node's weight.
+   * 
+   * @param t Node
+   * @return Size of the given node's subtree.
+   */
+  protected int size (AvlNode<T> t){
+    return t == null ? 0 : t.size;
+  }
+  
+  /**
+   * Recompute the height and subtree size of a node from its children.
+   * 
+   * @param t Node whose children have changed
+   */
+  private void update (AvlNode<T> t){
+    t.height = max (height (t.left), height (t.right)) + 1;
+    t.size = size (t.left) + size (t.right) + weight (t);
+    setParent (t.left, t);
+    setParent (t.right, t);
+  }
+  
+  /**
+   * Called whenever a node is linked under a parent: for both children
+   * of a node being updated, and for a node moved into another's place.
+   * Every change to the tree's shape ends in one of these, so a subclass
+   * that keeps parent links maintains them here; the base tree keeps
+   * none.
+   * 
+   * @param child  Node, or null for an empty subtree
+   * @param parent Its parent, or null if child is now the root
+   */
+  protected void setParent (AvlNode<T> child, AvlNode<T> parent){
+  }
+  
+  /**
+   * Determine how many occurrences of its element a node stands for.
+   * Subtree sizes, select, rank and iteration are all weighted by this.
+   * 
+   * @param t Node
+   * @return Always one in a set; subclasses may store other counts
+   */
+  protected int weight (AvlNode<T> t){
+    return 1;
+  }
+  
+  /**
+   * @return True if no element is counted more than once
+   */
+  protected boolean isDistinct (){
+    return true;
+  }
+  
+  /**
+   * Called when insert finds its element already in the tree. A subclass
+   * that counts occurrences adds one to the node's weight and returns
+   * true; the subtree sizes along the search path are then adjusted.
+   * 
+   * @param t Node holding the element
+   * @return True if the node's weight was increased by one
+   */
+  protected boolean addDuplicate (AvlNode<T> t){
+    return false;
+  }
+  
+  /**
+   * Called when remove finds its element. A subclass that counts
+   * occurrences takes one off a node of weight greater than one and
+   * returns true, so that the node stays in the tree.
+   * 
+   * @param t Node holding the element
+   * @return True if the node's weight was decreased by one instead of
+   *         the node being unlinked
+   */
+  protected boolean retainOnRemove (AvlNode<T> t){
+    return false;
+  }
+  
   /**
    * Find the maximum value among the given numbers.
    * 
@@ -109,6 +473,59 @@ class AvlTree<T extends Comparable<? super T>> {
     return b;
   }
   
+  /**
+   * Return the scratch stack used to record the root-to-leaf path of an
+   * update, growing it if the tree has become taller.
+   * 
+   * @return Path stack with room for every node on a search path
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private AvlNode<T>[] path (){
+    int needed = height (root) + 2;
+    if (path == null || path.length < needed)
+      path = (AvlNode<T>[]) new AvlNode[needed + 8];
+    return path;
+  }
+  
+  /**
+   * Replace a child link, or the root if the child has no parent.
+   * 
+   * @param parent   Parent node, or null if oldChild is the root
+   * @param oldChild Current child
+   * @param newChild Node taking its place
+   */
+  private void replaceChild (AvlNode<T> parent, AvlNode<T> oldChild, AvlNode<T> newChild){
+    if (parent == null)
+      root = newChild;
+    else if (parent.left == oldChild)
+      parent.left = newChild;
+    else
+      parent.right = newChild;
+    setParent (newChild, parent);
+  }
+  
+  /**
+   * Create the node that will hold a newly inserted element.
+   * Subclasses override this to store extra data in each node.
+   * 
+   * @param x Element being inserted
+   * @return New node without any children
+   */
+  protected AvlNode<T> newNode (T x){
+    return new AvlNode<T> (x);
+  }
+  
+  /**
+   * Create an empty tree with the same ordering, to hold the result of
+   * split or join. Subclasses whose nodes carry extra data override
+   * this, so that the nodes they hand over are read correctly.
+   * 
+   * @return New empty tree
+   */
+  protected AvlTree<T> newTree (){
+    return new AvlTree<T> (comparator);
+  }
+  
   /**
    * Insert an element into the tree.
    * 
@@ -117,60 +534,154 @@ class AvlTree<T extends Comparable<? super T>> {
    *         False - Error, the element was a duplicate.
    */
   public boolean insert (T x){
-    try {
-      root = insert (x, root);
-      
-      countInsertions++;
-      return true;
-    } catch(Exception e){ // TODO: catch a DuplicateValueException instead!
-      return false;
-    }
+    int before = size ();
+    insertNode (x);
+    return size () != before;
   }
   
   /**
-   * Internal method to perform an actual insertion.
+   * Find the node holding an element, inserting a new one if there
+   * is none. If the element was added, either as a new node from
+   * newNode or as an extra occurrence, size() has grown by one.
+   * 
+   * The insertion descends iteratively, recording its path on an
+   * explicit stack, and then retraces that path to rebalance.
    * 
-   * @param x Element to add
-   * @param t Root of the tree
-   * @return New root of the tree
-   * @throws Exception 
+   * @param x Element to find or insert
+   * @return Node holding the element
    */
-  protected AvlNode<T> insert (T x, AvlNode<T> t) throws Exception{
-    if (t == null)
-      t = new AvlNode<T> (x);
-    else if (x.compareTo (t.element) < 0){
-      t.left = insert (x, t.left);
-      
-      if (height (t.left) - height (t.right) == 2){
-        if (x.compareTo (t.left.element) < 0){
-          t = rotateWithLeftChild (t);
-          countSingleRotations++;
-        }
-        else {
-          t = doubleWithLeftChild (t);
-          countDoubleRotations++;
+  protected AvlNode<T> insertNode (T x){
+    DeepSearchEvent search = new DeepSearchEvent ();
+    search.begin ();
+    
+    if (root == null){
+      root = newNode (x);
+      searched (search, "insert", 0);
+      if (AvlTreeMetrics.ENABLED)
+        metrics.onInsert ();
+      sampleUpdate (x);
+      return root;
+    }
+    
+    AvlNode<T>[] path = path ();
+    AvlNode<T> t = root;
+    int depth = 0, cmp;
+    do {
+      cmp = compare (x, t.element);
+      if (cmp == 0){
+        searched (search, "insert", depth + 1);
+        if (addDuplicate (t)){
+          t.size++;
+          while (depth > 0){
+            path[--depth].size++;
+            path[depth] = null;
+          }
+          if (AvlTreeMetrics.ENABLED)
+            metrics.onInsert ();
+          sampleUpdate (x);
+          return t;
         }
+        Arrays.fill (path, 0, depth, null);
+        if (AvlTreeMetrics.ENABLED)
+          metrics.onDuplicate ();
+        return t;
       }
+      path[depth++] = t;
+      t = cmp < 0 ? t.left : t.right;
+    } while (t != null);
+    
+    AvlNode<T> added = newNode (x);
+    if (cmp < 0)
+      path[depth - 1].left = added;
+    else
+      path[depth - 1].right = added;
+    searched (search, "insert", depth);
+    
+    // Retrace; once a subtree's height is unchanged, nothing above it moves
+    while (depth > 0){
+      t = path[--depth];
+      path[depth] = null;
+      int oldHeight = t.height;
+      AvlNode<T> b = balance (t);
+      if (b != t)
+        replaceChild (depth == 0 ? null : path[depth - 1], t, b);
+      if (b.height == oldHeight)
+        break;
     }
-    else if (x.compareTo (t.element) > 0){
-      t.right = insert (x, t.right);
-      
-      if ( height (t.right) - height (t.left) == 2)
-        if (x.compareTo (t.right.element) > 0){
-          t = rotateWithRightChild (t);
-          countSingleRotations++;
-        }
-        else{
-          t = doubleWithRightChild (t);
-          countDoubleRotations++;
-        }
+    // Heights above are unchanged, but every ancestor gained an element
+    while (depth > 0){
+      path[--depth].size++;
+      path[depth] = null;
+    }
+    
+    if (AvlTreeMetrics.ENABLED)
+      metrics.onInsert ();
+    sampleUpdate (x);
+    return added;
+  }
+  
+  /**
+   * Count an update towards sampled validation, and check the updated
+   * element's search path if this update is the sampled one.
+   * 
+   * @param x Element inserted or removed
+   */
+  private void sampleUpdate (T x){
+    if (sampleEvery != 0 && --updatesUntilCheck == 0){
+      updatesUntilCheck = sampleEvery;
+      checkPath (x);
+    }
+  }
+  
+  /**
+   * Restore the AVL property at the given node after one of its
+   * subtrees has changed height by at most one, and update its height.
+   * 
+   * @param t Node to rebalance
+   * @return New root of the subtree
+   */
+  private AvlNode<T> balance (AvlNode<T> t){
+    int balance = getBalance (t);
+    if (balance > 1 || balance < -1)
+      return rotate (t, balance);
+    update (t);
+    return t;
+  }
+  
+  /**
+   * Perform the single or double rotation that rebalances a node.
+   * 
+   * @param t       Node to rebalance
+   * @param balance Balance factor of the node; either above 1 or below -1
+   * @return New root of the subtree
+   */
+  private AvlNode<T> rotate (AvlNode<T> t, int balance){
+    RotationEvent event = new RotationEvent ();
+    event.begin ();
+    
+    boolean single;
+    AvlNode<T> r;
+    if (balance > 1){
+      single = getBalance (t.left) >= 0;
+      r = single ? rotateWithLeftChild (t) : rotateWithRightThenLeft (t);
     }
     else {
-      throw new Exception("Attempting to insert duplicate value");
+      single = getBalance (t.right) <= 0;
+      r = single ? rotateWithRight (t) : rotateWithLeftThenRight (t);
     }
     
-    t.height = max (height (t.left), height (t.right)) + 1;
-    return t;
+    if (AvlTreeMetrics.ENABLED){
+      if (single)
+        metrics.onSingleRotation ();
+      else
+        metrics.onDoubleRotation ();
+    }
+    if (event.shouldCommit ()){
+      describe (event);
+      event.doubleRotation = !single;
+      event.commit ();
+    }
+    return r;
   }
   
   /**
@@ -182,15 +693,15 @@ class AvlTree<T extends Comparable<? super T>> {
    * @return New root
    */
   private AvlNode<T> rotateWithLeftChild (AvlNode<T> father){
-	  AvlNode<T> lChild = father.leftChild;
+    AvlNode<T> lChild = father.left;
 
-	  father.leftChild = lChild.rightChild;
-	  lChild.rightChild = father;
+    father.left = lChild.right;
+    lChild.right = father;
 
-	  father.height = Math.max (getNodeHeight (father.leftChild), getNodeHeight (father.rightChild)) + 1;
-	  lChild.height = Math.max (getNodeHeight (lChild.leftChild), getNodeHeight(father)) + 1;
+    update (father);
+    update (lChild);
 
-	  return (lChild);
+    return (lChild);
   }
   
   /**
@@ -203,8 +714,8 @@ class AvlTree<T extends Comparable<? super T>> {
    * @return New root
    */
   private AvlNode<T> rotateWithRightThenLeft (AvlNode<T> node){
-	  node.leftChild = rotateWithRight (node.leftChild);
-	  return rotateWithLeftChild (node);
+    node.left = rotateWithRight (node.left);
+    return rotateWithLeftChild (node);
   }
   
   /**
@@ -216,15 +727,15 @@ class AvlTree<T extends Comparable<? super T>> {
    * @return New root
    */
   private AvlNode<T> rotateWithRight (AvlNode<T> father){
-	  AvlNode<T> rChild = father.rightChild;
+    AvlNode<T> rChild = father.right;
 
-	  father.rightChild = rChild.leftChild;
-	  rChild.leftChild = father;
+    father.right = rChild.left;
+    rChild.left = father;
 
-	  father.height = Math.max (getNodeHeight (father.leftChild), getNodeHeight (father.rightChild)) + 1;
-	  rChild.height = Math.max (getNodeHeight (rChild.rightChild), getNodeHeight(father)) + 1;
+    update (father);
+    update (rChild);
 
-	  return (rChild);
+    return (rChild);
   }
 
   /**
@@ -237,47 +748,513 @@ class AvlTree<T extends Comparable<? super T>> {
    * @return New root
    */
   private AvlNode<T> rotateWithLeftThenRight (AvlNode<T> node){
-	  node.rightChild = rotateWithLeftChild (node.rightChild);
-	  return rotateWithRight (node);
+    node.right = rotateWithLeftChild (node.right);
+    return rotateWithRight (node);
   }
 
-
   /**
-   * Serialize the tree to a string using an infix traversal.
-   * 
-   * In other words, the tree items will be serialized in numeric order. 
+   * Determine the balance factor of the given node.
    * 
-   * @return String representation of the tree
+   * @param t Node
+   * @return Height of the left subtree minus height of the right subtree
    */
-  public String serializeInfix(){
-    StringBuilder str = new StringBuilder();
-    serializeInfix (root, str, " ");
-    return str.toString();
+  private int getBalance (AvlNode<T> t){
+    return t == null ? 0 : height (t.left) - height (t.right);
   }
-
+  
+  /***********************************************************************/
+  // Join-based operations
+  //
+  // These follow "Just Join for Parallel Ordered Sets" (Blelloch, Ferizovic
+  // and Sun): join and split are the primitives, and the set operations
+  // are written in terms of them. They work on whole subtrees, reuse the
+  // nodes of their arguments and leave the argument trees empty.
+  
   /**
-   * Internal method to infix-serialize a tree.
-   * 
-   * @param t    Tree node to traverse
-   * @param str  Accumulator; string to keep appending items to.
+   * Result of {@link #split(Object)}.
    */
-  protected void serializeInfix(AvlNode<T> t, StringBuilder str, String sep){
-    if (t != null){
-      serializeInfix (t.left, str, sep);
-      str.append(t.element.toString());
-      str.append(sep);
-      serializeInfix (t.right, str, sep);
-    }    
+  public static class Split<T> {
+    /**
+     * Elements less than the split key
+     */
+    public final AvlTree<T> left;
+    
+    /**
+     * True if the split key was in the tree
+     */
+    public final boolean found;
+    
+    /**
+     * Elements greater than the split key
+     */
+    public final AvlTree<T> right;
+    
+    Split (AvlTree<T> left, boolean found, AvlTree<T> right){
+      this.left = left;
+      this.found = found;
+      this.right = right;
+    }
   }
   
   /**
-   * Serialize the tree to a string using a prefix traversal.
+   * Scratch result of the node-level split: the two halves and the
+   * node holding the key, if any.
+   */
+  private static class SplitNodes<T> {
+    AvlNode<T> left, found, right;
+  }
+  
+  /**
+   * Combine two trees and a key lying strictly between them into one
+   * tree, in time proportional to the difference of their heights. The
+   * new tree takes the left tree's ordering, which the right tree must
+   * share.
    * 
-   * In other words, the tree items will be serialized in the order that
-   * they are stored within the tree. 
+   * The new tree is of the same kind as the left tree; see newTree and
+   * adopt.
    * 
-   * @return String representation of the tree
-   */  
+   * @param left  Tree whose elements are all less than key; left empty
+   * @param key   Element to join on
+   * @param right Tree whose elements are all greater than key; left empty
+   * @return New tree containing left, key and right
+   * @throws IllegalArgumentException if the trees are not ordered
+   *         around key, or one counts occurrences and the other does not
+   */
+  public static <T> AvlTree<T> join (AvlTree<T> left, T key, AvlTree<T> right){
+    if ((!left.isEmpty () && left.compare (left.findMax (), key) >= 0) ||
+        (!right.isEmpty () && left.compare (right.findMin (), key) <= 0))
+      throw new IllegalArgumentException ("Trees are not ordered around the join key");
+    right = left.adopt (right);
+    
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    
+    AvlTree<T> tree = left.newTree ();
+    tree.root = tree.join (left.root, tree.newNode (key), right.root);
+    left.root = null;
+    right.root = null;
+    left.rootReplaced ();
+    right.rootReplaced ();
+    tree.rootReplaced ();
+    tree.bulkOperationDone (event, "join", tree.size ());
+    return tree;
+  }
+  
+  /**
+   * Split the tree around a key, in O(log n) time.
+   * 
+   * @param key Element to split on; it need not be in the tree
+   * @return The elements below and above key, in two new trees of
+   *         this tree's kind, and whether key was present. This tree
+   *         is left empty.
+   */
+  public Split<T> split (T key){
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    int inputSize = size ();
+    
+    SplitNodes<T> parts = new SplitNodes<T> ();
+    split (root, key, parts);
+    root = null;
+    rootReplaced ();
+    bulkOperationDone (event, "split", inputSize);
+    
+    AvlTree<T> left = newTree (), right = newTree ();
+    left.root = parts.left;
+    right.root = parts.right;
+    left.rootReplaced ();
+    right.rootReplaced ();
+    return new Split<T> (left, parts.found != null, right);
+  }
+  
+  /**
+   * Add all elements of another tree to this one.
+   * 
+   * Runs in O(m log(n/m + 1)) work for trees of sizes m &lt;= n, and
+   * splits large inputs across the common fork/join pool.
+   * 
+   * @param other Tree to merge in; it is left empty
+   * @throws IllegalArgumentException if one tree counts occurrences and
+   *         the other does not
+   */
+  public void union (AvlTree<T> other){
+    other = adopt (other);
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    long inputSize = (long) size () + other.size ();
+    
+    root = setOperation (UNION, root, other.root);
+    other.root = null;
+    rootReplaced ();
+    other.rootReplaced ();
+    bulkOperationDone (event, "union", inputSize);
+  }
+  
+  /**
+   * Retain only the elements that are also in another tree.
+   * 
+   * @param other Tree to intersect with; it is left empty
+   * @see #union(AvlTree)
+   */
+  public void intersection (AvlTree<T> other){
+    checkOperand (other);
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    long inputSize = (long) size () + other.size ();
+    
+    root = setOperation (INTERSECTION, root, other.root);
+    other.root = null;
+    rootReplaced ();
+    other.rootReplaced ();
+    bulkOperationDone (event, "intersection", inputSize);
+  }
+  
+  /**
+   * Remove all elements that are in another tree.
+   * 
+   * @param other Tree of elements to remove; it is left empty
+   * @see #union(AvlTree)
+   */
+  public void difference (AvlTree<T> other){
+    checkOperand (other);
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    long inputSize = (long) size () + other.size ();
+    
+    root = setOperation (DIFFERENCE, root, other.root);
+    other.root = null;
+    rootReplaced ();
+    other.rootReplaced ();
+    bulkOperationDone (event, "difference", inputSize);
+  }
+  
+  /**
+   * Check, before either tree is changed, that a set operation can
+   * combine another tree's nodes with this one's: a tree that counts
+   * occurrences in its nodes cannot be combined with one that does not.
+   * 
+   * @param other The set operation's argument
+   * @throws IllegalArgumentException if the trees' nodes differ in kind
+   */
+  protected void checkOperand (AvlTree<T> other){
+    if (other.isDistinct () != isDistinct ())
+      throw new IllegalArgumentException ("Cannot combine a multiset with a set");
+  }
+  
+  /**
+   * Prepare another tree whose nodes union or join will link into this
+   * kind of tree. Subclasses whose nodes carry extra links override this
+   * to copy a tree of another kind into their own nodes.
+   * 
+   * @param other Tree whose nodes are to be taken over
+   * @return Tree holding the same elements in nodes of this tree's kind;
+   *         other itself if they already are, else a copy, with other
+   *         left empty
+   * @throws IllegalArgumentException if the trees' nodes differ in kind
+   * @see #checkOperand(AvlTree)
+   */
+  protected AvlTree<T> adopt (AvlTree<T> other){
+    checkOperand (other);
+    return other;
+  }
+  
+  /**
+   * Called once split, join or a set operation has assigned the root
+   * directly rather than through insert and remove, for subclasses that
+   * keep state about the tree's shape. Does nothing here.
+   */
+  protected void rootReplaced (){
+  }
+  
+  /**
+   * Internal join method; link two subtrees through a node whose element
+   * lies between them, rebalancing along the spine of the taller one.
+   * 
+   * @param l Left subtree
+   * @param k Node to join on; its children are overwritten
+   * @param r Right subtree
+   * @return Root of the joined subtree
+   */
+  private AvlNode<T> join (AvlNode<T> l, AvlNode<T> k, AvlNode<T> r){
+    if (height (l) > height (r) + 1)
+      return joinRight (l, k, r);
+    if (height (r) > height (l) + 1)
+      return joinLeft (l, k, r);
+    k.left = l;
+    k.right = r;
+    update (k);
+    return k;
+  }
+  
+  /**
+   * Join where the left subtree is the taller: descend its right spine
+   * to a subtree of about r's height, attach there and rebalance upward.
+   */
+  private AvlNode<T> joinRight (AvlNode<T> l, AvlNode<T> k, AvlNode<T> r){
+    AvlNode<T> c = l.right;
+    if (height (c) <= height (r) + 1){
+      k.left = c;
+      k.right = r;
+      update (k);
+      if (k.height <= height (l.left) + 1){
+        l.right = k;
+        update (l);
+        return l;
+      }
+      l.right = rotateWithLeftChild (k);
+      return rotateWithRight (l);
+    }
+    
+    l.right = joinRight (c, k, r);
+    if (l.right.height <= height (l.left) + 1){
+      update (l);
+      return l;
+    }
+    return rotateWithRight (l);
+  }
+  
+  /**
+   * Mirror image of joinRight, for a taller right subtree.
+   */
+  private AvlNode<T> joinLeft (AvlNode<T> l, AvlNode<T> k, AvlNode<T> r){
+    AvlNode<T> c = r.left;
+    if (height (c) <= height (l) + 1){
+      k.left = l;
+      k.right = c;
+      update (k);
+      if (k.height <= height (r.right) + 1){
+        r.left = k;
+        update (r);
+        return r;
+      }
+      r.left = rotateWithRight (k);
+      return rotateWithLeftChild (r);
+    }
+    
+    r.left = joinLeft (l, k, c);
+    if (r.left.height <= height (r.right) + 1){
+      update (r);
+      return r;
+    }
+    return rotateWithLeftChild (r);
+  }
+  
+  /**
+   * Internal join method for two subtrees without a key between them;
+   * the last node of the left subtree is detached and used as the key.
+   * 
+   * @param l Left subtree
+   * @param r Right subtree
+   * @return Root of the joined subtree
+   */
+  private AvlNode<T> join2 (AvlNode<T> l, AvlNode<T> r){
+    if (l == null)
+      return r;
+    SplitNodes<T> parts = new SplitNodes<T> ();
+    splitLast (l, parts);
+    return join (parts.left, parts.found, r);
+  }
+  
+  /**
+   * Detach the last node of a subtree.
+   * 
+   * @param t     Non-empty subtree
+   * @param parts Receives the remaining subtree (left) and the last node (found)
+   */
+  private void splitLast (AvlNode<T> t, SplitNodes<T> parts){
+    if (t.right == null){
+      parts.left = t.left;
+      parts.found = t;
+      return;
+    }
+    splitLast (t.right, parts);
+    parts.left = join (t.left, t, parts.left);
+  }
+  
+  /**
+   * Internal split method.
+   * 
+   * @param t     Subtree to split; its nodes are reused
+   * @param key   Element to split on
+   * @param parts Receives the subtrees below and above key, and the node
+   *              holding key if there is one
+   */
+  private void split (AvlNode<T> t, T key, SplitNodes<T> parts){
+    if (t == null){
+      parts.left = parts.found = parts.right = null;
+      return;
+    }
+    
+    AvlNode<T> l = t.left, r = t.right;
+    int cmp = compare (key, t.element);
+    if (cmp < 0){
+      split (l, key, parts);
+      parts.right = join (parts.right, t, r);
+    }
+    else if (cmp > 0){
+      split (r, key, parts);
+      parts.left = join (l, t, parts.left);
+    }
+    else {
+      parts.left = l;
+      parts.found = t;
+      parts.right = r;
+    }
+  }
+  
+  protected static final int UNION = 0;
+  protected static final int INTERSECTION = 1;
+  protected static final int DIFFERENCE = 2;
+  
+  /**
+   * Called when a set operation finds an element in both trees, to
+   * decide whether this tree's node for it stays in the result. The
+   * other tree's node is always dropped. A subclass that counts
+   * occurrences combines the two weights into t here.
+   * 
+   * @param op    UNION, INTERSECTION or DIFFERENCE
+   * @param t     This tree's node
+   * @param other The other tree's node for the same element
+   * @return True if t stays in the result
+   */
+  protected boolean mergeNodes (int op, AvlNode<T> t, AvlNode<T> other){
+    return op != DIFFERENCE;
+  }
+  
+  /**
+   * Combined subtree size above which the two halves of a set operation
+   * are run as separate fork/join tasks
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 13;
+  
+  /**
+   * Run a set operation, on the common fork/join pool if the inputs are
+   * large enough to be worth splitting.
+   */
+  private AvlNode<T> setOperation (int op, AvlNode<T> t1, AvlNode<T> t2){
+    if (size (t1) + size (t2) < PARALLEL_THRESHOLD)
+      return setOperation (op, t1, t2, false);
+    return ForkJoinPool.commonPool ().invoke (new SetOperationTask (op, t1, t2));
+  }
+  
+  /**
+   * Internal set operation method.
+   * 
+   * @param op       UNION, INTERSECTION or DIFFERENCE
+   * @param t1       First subtree
+   * @param t2       Second subtree
+   * @param parallel True if running inside a fork/join task
+   * @return Root of the resulting subtree
+   */
+  private AvlNode<T> setOperation (int op, AvlNode<T> t1, AvlNode<T> t2, boolean parallel){
+    if (t1 == null)
+      return op == UNION ? t2 : null;
+    if (t2 == null)
+      return op == INTERSECTION ? null : t1;
+    
+    // Split one subtree around the other's root element
+    SplitNodes<T> parts = new SplitNodes<T> ();
+    AvlNode<T> pivot, l1, r1, l2, r2;
+    if (op == DIFFERENCE){
+      pivot = t2;
+      l2 = t2.left;
+      r2 = t2.right;
+      split (t1, t2.element, parts);
+      l1 = parts.left;
+      r1 = parts.right;
+    }
+    else {
+      pivot = t1;
+      l1 = t1.left;
+      r1 = t1.right;
+      split (t2, t1.element, parts);
+      l2 = parts.left;
+      r2 = parts.right;
+    }
+    
+    AvlNode<T> tl, tr;
+    if (parallel && size (l1) + size (l2) + size (r1) + size (r2) >= PARALLEL_THRESHOLD){
+      SetOperationTask task = new SetOperationTask (op, l1, l2);
+      task.fork ();
+      tr = setOperation (op, r1, r2, true);
+      tl = task.join ();
+    }
+    else {
+      tl = setOperation (op, l1, l2, parallel);
+      tr = setOperation (op, r1, r2, parallel);
+    }
+    
+    // Keep this tree's node for the pivot element, if it survives
+    AvlNode<T> kept;
+    if (op == DIFFERENCE)
+      kept = parts.found != null && mergeNodes (op, parts.found, pivot) ? parts.found : null;
+    else if (parts.found != null)
+      kept = mergeNodes (op, pivot, parts.found) ? pivot : null;
+    else
+      kept = op == UNION ? pivot : null;
+    
+    if (kept != null)
+      return join (tl, kept, tr);
+    return join2 (tl, tr);
+  }
+  
+  /**
+   * Fork/join task running one half of a set operation.
+   */
+  private class SetOperationTask extends RecursiveTask<AvlNode<T>> {
+    private static final long serialVersionUID = 1L;
+    
+    private final int op;
+    private final AvlNode<T> t1, t2;
+    
+    SetOperationTask (int op, AvlNode<T> t1, AvlNode<T> t2){
+      this.op = op;
+      this.t1 = t1;
+      this.t2 = t2;
+    }
+    
+    protected AvlNode<T> compute (){
+      return setOperation (op, t1, t2, true);
+    }
+  }
+
+
+  /**
+   * Serialize the tree to a string using an infix traversal.
+   * 
+   * In other words, the tree items will be serialized in numeric order. 
+   * 
+   * @return String representation of the tree
+   */
+  public String serializeInfix(){
+    StringBuilder str = new StringBuilder();
+    serializeInfix (root, str, " ");
+    return str.toString();
+  }
+
+  /**
+   * Internal method to infix-serialize a tree.
+   * 
+   * @param t    Tree node to traverse
+   * @param str  Accumulator; string to keep appending items to.
+   */
+  protected void serializeInfix(AvlNode<T> t, StringBuilder str, String sep){
+    if (t != null){
+      serializeInfix (t.left, str, sep);
+      str.append(t.element.toString());
+      str.append(sep);
+      serializeInfix (t.right, str, sep);
+    }    
+  }
+  
+  /**
+   * Serialize the tree to a string using a prefix traversal.
+   * 
+   * In other words, the tree items will be serialized in the order that
+   * they are stored within the tree. 
+   * 
+   * @return String representation of the tree
+   */  
   public String serializePrefix(){
     StringBuilder str = new StringBuilder();
     serializePrefix (root, str, " ");
@@ -299,6 +1276,252 @@ class AvlTree<T extends Comparable<? super T>> {
     }
   }
   
+  /***********************************************************************/
+  // Binary serialization. The format is a header (magic number, version
+  // and layout), the element count, and then the elements, written by an
+  // ElementCodec, in either of two layouts.
+  
+  /**
+   * Order of the elements in the binary form.
+   */
+  public enum Layout {
+    /**
+     * Ascending order; read back as a perfectly balanced tree
+     */
+    SORTED,
+    
+    /**
+     * Prefix order, each element preceded by a byte flagging which
+     * children its node has; read back as exactly the same shape
+     */
+    PREFIX
+  }
+  
+  private static final int MAGIC = 0x41564C54; // "AVLT"
+  private static final int VERSION = 1;
+  private static final int HAS_LEFT = 1, HAS_RIGHT = 2;
+  
+  /**
+   * Write the tree in its binary form. The stream is flushed but not
+   * closed.
+   * 
+   * @param out    Destination
+   * @param codec  Writes each element
+   * @param layout Order of the elements
+   * @throws IOException if the destination fails
+   */
+  public void writeTo (OutputStream out, ElementCodec<? super T> codec, Layout layout) throws IOException {
+    if (!isDistinct ())
+      throw new UnsupportedOperationException ("Only trees of distinct elements can be written");
+    
+    DataOutputStream data = new DataOutputStream (new BufferedOutputStream (out));
+    data.writeInt (MAGIC);
+    data.writeByte (VERSION);
+    data.writeByte (layout.ordinal ());
+    data.writeInt (size ());
+    if (layout == Layout.PREFIX)
+      writePrefix (root, data, codec);
+    else
+      for (T x : this)
+        codec.write (x, data);
+    data.flush ();
+  }
+  
+  /**
+   * Write the tree in its binary form to a channel.
+   * 
+   * @param out    Destination; must be in blocking mode
+   * @param codec  Writes each element
+   * @param layout Order of the elements
+   * @throws IOException if the destination fails
+   */
+  public void writeTo (WritableByteChannel out, ElementCodec<? super T> codec, Layout layout) throws IOException {
+    writeTo (Channels.newOutputStream (out), codec, layout);
+  }
+  
+  /**
+   * Internal method to write a subtree in prefix order.
+   */
+  private static <T> void writePrefix (AvlNode<T> t, DataOutput out, ElementCodec<? super T> codec) throws IOException {
+    while (t != null){
+      out.writeByte ((t.left != null ? HAS_LEFT : 0) | (t.right != null ? HAS_RIGHT : 0));
+      codec.write (t.element, out);
+      writePrefix (t.left, out, codec);
+      t = t.right;
+    }
+  }
+  
+  /**
+   * Read a tree of naturally ordered elements from its binary form.
+   * 
+   * @param in    Source; read through a buffer, so bytes after the tree
+   *              may also be consumed
+   * @param codec Reads each element
+   * @return The tree, rebuilt in O(n) without rotations
+   * @throws IOException if the source fails or does not hold a tree
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> readFrom (InputStream in, ElementCodec<T> codec) throws IOException {
+    return readFrom (in, codec, null);
+  }
+  
+  /**
+   * Read a tree from its binary form.
+   * 
+   * @param in         Source; read through a buffer, so bytes after the
+   *                   tree may also be consumed
+   * @param codec      Reads each element
+   * @param comparator Ordering the tree was written in, or null for the
+   *                   natural ordering
+   * @return The tree, rebuilt in O(n) without rotations
+   * @throws IOException if the source fails or does not hold a tree;
+   *         StreamCorruptedException if the elements are out of order
+   *         or the shape is not a valid AVL tree
+   */
+  public static <T> AvlTree<T> readFrom (InputStream in, ElementCodec<T> codec,
+                                         Comparator<? super T> comparator) throws IOException {
+    BulkOperationEvent event = new BulkOperationEvent ();
+    event.begin ();
+    
+    DataInputStream data = new DataInputStream (new BufferedInputStream (in));
+    if (data.readInt () != MAGIC)
+      throw new StreamCorruptedException ("Not an AVL tree");
+    int version = data.readUnsignedByte ();
+    if (version != VERSION)
+      throw new StreamCorruptedException ("Unsupported AVL tree version " + version);
+    int layout = data.readUnsignedByte ();
+    int n = data.readInt ();
+    if (layout >= Layout.values ().length || n < 0)
+      throw new StreamCorruptedException ("Bad AVL tree header");
+    
+    AvlTree<T> tree = new AvlTree<T> (comparator);
+    try {
+      tree.readBody (data, codec, layout, n);
+    } catch (EOFException e){
+      throw new StreamCorruptedException ("AVL tree is shorter than its count");
+    }
+    tree.bulkOperationDone (event, "read", n);
+    return tree;
+  }
+  
+  /**
+   * Internal method to read the elements following the header.
+   * 
+   * @param in     Source
+   * @param codec  Reads each element
+   * @param layout Layout given by the header
+   * @param n      Element count given by the header
+   */
+  private void readBody (DataInput in, ElementCodec<T> codec, int layout, int n) throws IOException {
+    if (layout == Layout.PREFIX.ordinal ()){
+      int[] remaining = {n};
+      if (n > 0)
+        root = readPrefix (in, codec, remaining, null, null, maxHeight (n));
+      if (remaining[0] != 0)
+        throw new StreamCorruptedException ("AVL tree shape does not match its count");
+    }
+    else {
+      // The count is not trusted to size the buffer, so that a corrupt
+      // one runs out of input rather than out of memory
+      List<T> sorted = new ArrayList<T> ();
+      T prev = null;
+      for (int i = 0; i < n; i++){
+        T x = codec.read (in);
+        if (i > 0 && compare (prev, x) >= 0)
+          throw new StreamCorruptedException ("AVL tree elements out of order at index " + i);
+        sorted.add (x);
+        prev = x;
+      }
+      root = build (sorted.iterator (), n, this);
+    }
+  }
+  
+  /**
+   * Read a tree of naturally ordered elements from a channel.
+   * 
+   * @param in    Source; must be in blocking mode
+   * @param codec Reads each element
+   * @return The tree
+   * @throws IOException if the source fails or does not hold a tree
+   * @see #readFrom(InputStream, ElementCodec)
+   */
+  public static <T extends Comparable<? super T>> AvlTree<T> readFrom (ReadableByteChannel in, ElementCodec<T> codec) throws IOException {
+    return readFrom (Channels.newInputStream (in), codec, null);
+  }
+  
+  /**
+   * Read a tree from a channel.
+   * 
+   * @param in         Source; must be in blocking mode
+   * @param codec      Reads each element
+   * @param comparator Ordering the tree was written in, or null for the
+   *                   natural ordering
+   * @return The tree
+   * @throws IOException if the source fails or does not hold a tree
+   * @see #readFrom(InputStream, ElementCodec, Comparator)
+   */
+  public static <T> AvlTree<T> readFrom (ReadableByteChannel in, ElementCodec<T> codec,
+                                         Comparator<? super T> comparator) throws IOException {
+    return readFrom (Channels.newInputStream (in), codec, comparator);
+  }
+  
+  /**
+   * Determine the greatest height an AVL tree of n nodes can have; the
+   * sparsest tree of height h has one node more than the sparsest trees
+   * of heights h - 1 and h - 2 together, about 1.44 log2 n.
+   * 
+   * @param n Number of nodes; positive
+   * @return Maximum height
+   */
+  private static int maxHeight (int n){
+    long shorter = 0, sparsest = 1;
+    int h = 0;
+    while (true){
+      long next = sparsest + shorter + 1;
+      if (next > n)
+        return h;
+      shorter = sparsest;
+      sparsest = next;
+      h++;
+    }
+  }
+  
+  /**
+   * Internal method to read a subtree written in prefix order. The
+   * stream is not trusted: the subtree must fit the node count, lie
+   * strictly between its bounds, be balanced and be no taller than an
+   * AVL tree of that count can be, which also bounds the recursion.
+   * 
+   * @param in        Source
+   * @param codec     Reads each element
+   * @param remaining Number of nodes the header promised and not yet
+   *                  read; guards against corrupt shape flags
+   * @param lo        Every element must be above this, or null for no bound
+   * @param hi        Every element must be below this, or null for no bound
+   * @param levels    Greatest height the subtree may have
+   * @return Root of the subtree
+   */
+  private AvlNode<T> readPrefix (DataInput in, ElementCodec<T> codec, int[] remaining,
+                                 T lo, T hi, int levels) throws IOException {
+    if (remaining[0]-- == 0)
+      throw new StreamCorruptedException ("AVL tree shape does not match its count");
+    if (levels < 0)
+      throw new StreamCorruptedException ("AVL tree is too tall for its count");
+    int flags = in.readUnsignedByte ();
+    T x = codec.read (in);
+    if ((lo != null && compare (x, lo) <= 0) || (hi != null && compare (x, hi) >= 0))
+      throw new StreamCorruptedException ("AVL tree elements out of order");
+    
+    AvlNode<T> t = new AvlNode<T> (x);
+    if ((flags & HAS_LEFT) != 0)
+      t.left = readPrefix (in, codec, remaining, lo, x, levels - 1);
+    if ((flags & HAS_RIGHT) != 0)
+      t.right = readPrefix (in, codec, remaining, x, hi, levels - 1);
+    if (Math.abs (getBalance (t)) > 1)
+      throw new StreamCorruptedException ("AVL tree is not balanced");
+    update (t);
+    return t;
+  }
+  
   /**
    * Deletes all nodes from the tree.
    *
@@ -307,6 +1530,79 @@ class AvlTree<T extends Comparable<? super T>> {
     root = null;
   }
   
+  /**
+   * Determine the number of elements in the tree.
+   * 
+   * @return Number of elements, in constant time
+   */
+  public int size(){
+    return size (root);
+  }
+  
+  /**
+   * Find the element of the given rank, that is, the k-th smallest
+   * element counting from zero.
+   * 
+   * @param k Rank of the element to find
+   * @return Element with exactly k smaller elements in the tree
+   * @throws IndexOutOfBoundsException if k is not in [0, size())
+   */
+  public T select(int k){
+    if (k < 0 || k >= size())
+      throw new IndexOutOfBoundsException ("Rank: " + k + ", Size: " + size());
+    
+    AvlNode<T> t = root;
+    while (true){
+      int leftSize = size (t.left), weight = weight (t);
+      if (k < leftSize)
+        t = t.left;
+      else if (k >= leftSize + weight){
+        k -= leftSize + weight;
+        t = t.right;
+      }
+      else
+        return t.element;
+    }
+  }
+  
+  /**
+   * Determine the rank of an element, that is, the number of elements
+   * in the tree that are smaller than it. The element itself need not
+   * be present.
+   * 
+   * @param x Element to rank
+   * @return Number of elements smaller than x
+   */
+  public int rank(T x){
+    return rank (x, false);
+  }
+  
+  /**
+   * Count the elements below x, or below and equal to x if inclusive
+   * is set.
+   * 
+   * @param x         Element to rank
+   * @param inclusive True to also count x itself if present
+   * @return Number of elements smaller than (or equal to) x
+   */
+  protected int rank(T x, boolean inclusive){
+    AvlNode<T> t = root;
+    int rank = 0;
+    while (t != null){
+      int cmp = compare (x, t.element);
+      if (cmp < 0)
+        t = t.left;
+      else {
+        rank += size (t.left);
+        if (cmp == 0)
+          return inclusive ? rank + weight (t) : rank;
+        rank += weight (t);
+        t = t.right;
+      }
+    }
+    return rank;
+  }
+  
   /**
    * Determine if the tree is empty.
    * 
@@ -369,116 +1665,614 @@ class AvlTree<T extends Comparable<? super T>> {
         return t;
     }
 
+  /**
+   * Find the largest element less than or equal to x.
+   * 
+   * @param x Element to search from; it need not be present
+   * @return The element, or null if there is none
+   */
+  public T floor (T x){
+    AvlNode<T> t = lowerNode (x, true);
+    return t == null ? null : t.element;
+  }
+  
+  /**
+   * Find the largest element strictly less than x.
+   * 
+   * @param x Element to search from; it need not be present
+   * @return The element, or null if there is none
+   */
+  public T lower (T x){
+    AvlNode<T> t = lowerNode (x, false);
+    return t == null ? null : t.element;
+  }
+  
+  /**
+   * Find the smallest element greater than or equal to x.
+   * 
+   * @param x Element to search from; it need not be present
+   * @return The element, or null if there is none
+   */
+  public T ceiling (T x){
+    AvlNode<T> t = higherNode (x, true);
+    return t == null ? null : t.element;
+  }
+  
+  /**
+   * Find the smallest element strictly greater than x.
+   * 
+   * @param x Element to search from; it need not be present
+   * @return The element, or null if there is none
+   */
+  public T higher (T x){
+    AvlNode<T> t = higherNode (x, false);
+    return t == null ? null : t.element;
+  }
+  
+  /**
+   * Find the node of the largest element below x, in a single descent.
+   * 
+   * @param x         Element to search from
+   * @param inclusive True to accept an element equal to x
+   * @return The node, or null if there is none
+   */
+  protected AvlNode<T> lowerNode (T x, boolean inclusive){
+    AvlNode<T> best = null, t = root;
+    while (t != null){
+      int cmp = compare (x, t.element);
+      if (cmp == 0 && inclusive)
+        return t;
+      if (cmp > 0){
+        best = t;
+        t = t.right;
+      }
+      else
+        t = t.left;
+    }
+    return best;
+  }
+  
+  /**
+   * Find the node of the smallest element above x, in a single descent.
+   * 
+   * @param x         Element to search from
+   * @param inclusive True to accept an element equal to x
+   * @return The node, or null if there is none
+   */
+  protected AvlNode<T> higherNode (T x, boolean inclusive){
+    AvlNode<T> best = null, t = root;
+    while (t != null){
+      int cmp = compare (x, t.element);
+      if (cmp == 0 && inclusive)
+        return t;
+      if (cmp < 0){
+        best = t;
+        t = t.left;
+      }
+      else
+        t = t.right;
+    }
+    return best;
+  }
 
-// A version of remove from http://www.dreamincode.net/forums/topic/214510-working-example-of-avl-tree-remove-method/
-// but it needs some attention and does not appear to be 100% correct
 
   /**
    * Remove from the tree. Nothing is done if x is not found.
+   * 
    * @param x the item to remove.
+   * @return True if the item was found and removed
    */
-  public void remove( T x ) {
-      root = remove(x, root);
+  public boolean remove (T x){
+    return removeNode (x) != null;
   }
-
-  public AvlNode<T> remove(T w, AvlNode<T> z) {
-	  if (z == null)
-		{
-			System.out.println("No such value found.");
-			return z;
-		}
-		else if(w.compareTo(z.value) < 0) // search key on the left subtree
-			z.leftChild = remove(w, z.leftChild);
-		else if(w.compareTo(z.value) > 0) // search key on the right subtree
-			z.rightChild = remove(w, z.rightChild);
-
-		else { // the key is found!
-
-			// delete node
-			if (z.rightChild == null || z.leftChild == null) {
-				z = z.rightChild == null ? z.leftChild : z.rightChild;
-			}
-			else
-			{
-				z.value = minValue(z.rightChild).value;
-				z.rightChild = remove(z.value, z.rightChild);
-			}
-
-		}
-
-		if (z == null)
-			return null;
-
-		z.height = Math.max(getNodeHeight(z.leftChild), getNodeHeight(z.rightChild)) + 1;
-		if (getBalance(z) > 1)
-		{
-			if (getBalance(z.leftChild) >= 0)
-				return rotateWithLeftChild(z); // left left case
-			else // if (getBalance(z.leftChild) < 0)
-				return rotateWithRightThenLeft(z); // left right case
-		}
-
-		else if(getBalance(z) < -1)
-		{
-			if (getBalance(z.rightChild) <= 0)
-				return rotateWithRight(z); // right right case
-			else // if (getBalance(z.rightChild) > 0)
-				return rotateWithLeftThenRight(z); // right left case
-		}
-
-
-		return z;
+  
+  /**
+   * Unlink the node holding an element from the tree.
+   * 
+   * Like insert, this descends iteratively and then retraces the
+   * recorded path to rebalance. A node with two children is replaced
+   * by its in-order successor node, so the unlinked node still holds
+   * the removed element and any extra data a subclass put in it.
+   * 
+   * @param x the item to remove.
+   * @return The unlinked node, or null if x was not found. If the node
+   *         only lost one occurrence, it is returned still linked.
+   */
+  protected AvlNode<T> removeNode (T x){
+    DeepSearchEvent search = new DeepSearchEvent ();
+    search.begin ();
+    
+    AvlNode<T>[] path = path ();
+    AvlNode<T> t = root;
+    int depth = 0;
+    while (t != null){
+      int cmp = compare (x, t.element);
+      if (cmp == 0)
+        break;
+      path[depth++] = t;
+      t = cmp < 0 ? t.left : t.right;
+    }
+    searched (search, "remove", t == null ? depth : depth + 1);
+    if (t == null){
+      Arrays.fill (path, 0, depth, null);
+      if (AvlTreeMetrics.ENABLED)
+        metrics.onRemoveMiss ();
+      return null;
+    }
+    if (retainOnRemove (t)){
+      t.size--;
+      while (depth > 0){
+        path[--depth].size--;
+        path[depth] = null;
+      }
+      if (AvlTreeMetrics.ENABLED)
+        metrics.onRemove ();
+      sampleUpdate (x);
+      return t;
+    }
+    
+    AvlNode<T> parent = depth == 0 ? null : path[depth - 1];
+    if (t.left == null || t.right == null)
+      replaceChild (parent, t, t.left == null ? t.right : t.left);
+    else {
+      // Unlink the successor, then let it take the removed node's place
+      int slot = depth++;
+      AvlNode<T> s = t.right;
+      while (s.left != null){
+        path[depth++] = s;
+        s = s.left;
+      }
+      if (depth - 1 == slot)
+        t.right = s.right;
+      else
+        path[depth - 1].left = s.right;
+      s.left = t.left;
+      s.right = t.right;
+      s.height = t.height;
+      path[slot] = s;
+      replaceChild (parent, t, s);
+    }
+    AvlNode<T> removed = t;
+    removed.left = removed.right = null;
+    
+    while (depth > 0){
+      t = path[--depth];
+      path[depth] = null;
+      AvlNode<T> b = balance (t);
+      if (b != t)
+        replaceChild (depth == 0 ? null : path[depth - 1], t, b);
+    }
+    if (AvlTreeMetrics.ENABLED)
+      metrics.onRemove ();
+    sampleUpdate (x);
+    return removed;
   }
 
   /**
    * Search for an element within the tree. 
    *
    * @param x Element to find
-   * @param t Root of the tree
    * @return True if the element is found, false otherwise
    */
   public boolean contains(T x){
-    return contains(x, root); 
+    return findNode(x) != null;
   }
-
+  
   /**
-   * Internal find method; search for an element starting at the given node.
+   * Find the node holding an element.
    *
    * @param x Element to find
-   * @param t Root of the tree
-   * @return True if the element is found, false otherwise
+   * @return Node holding the element, or null if it is not in the tree
    */
-  protected boolean contains(T x, AvlNode<T> t) {
-    if (t == null){
-      return false; // The node was not found
-
-    } else if (x.compareTo(t.element) < 0){
-      return contains(x, t.left);
-    } else if (x.compareTo(t.element) > 0){
-      return contains(x, t.right); 
+  protected AvlNode<T> findNode(T x){
+    DeepSearchEvent search = new DeepSearchEvent();
+    search.begin();
+    
+    AvlNode<T> t = root;
+    int depth = 0;
+    while (t != null){
+      depth++;
+      int cmp = compare(x, t.element);
+      if (cmp == 0)
+        break;
+      t = cmp < 0 ? t.left : t.right;
+    }
+    searched(search, "find", depth);
+    return t;
+  }
+  
+  /**
+   * Count the elements in the closed range [lo, hi].
+   * 
+   * Uses the subtree sizes, so this costs two descents regardless of
+   * how many elements fall in the range.
+   *
+   * @param lo Lower bound, inclusive
+   * @param hi Upper bound, inclusive
+   * @return Number of elements x with lo &lt;= x &lt;= hi
+   */
+  public int rangeCount(T lo, T hi){
+    if (compare(lo, hi) > 0)
+      return 0;
+    return rank(hi, true) - rank(lo, false);
+  }
+  
+  /**
+   * Visit, in ascending order, each element in the closed range [lo, hi].
+   * 
+   * Subtrees lying entirely outside the range are never entered, so this
+   * costs O(log n + k) for k visited elements.
+   *
+   * @param lo     Lower bound, inclusive
+   * @param hi     Upper bound, inclusive
+   * @param action Visitor to call on each element
+   */
+  public void forEachInRange(T lo, T hi, Consumer<? super T> action){
+    if (compare(lo, hi) <= 0)
+      forEachInRange(root, lo, hi, action);
+  }
+  
+  /**
+   * Internal range visitor; visit the elements of a subtree that lie
+   * within [lo, hi].
+   *
+   * @param t      Root of the subtree
+   * @param lo     Lower bound, inclusive
+   * @param hi     Upper bound, inclusive
+   * @param action Visitor to call on each element
+   */
+  private void forEachInRange(AvlNode<T> t, T lo, T hi, Consumer<? super T> action){
+    while (t != null){
+      boolean aboveLo = compare(lo, t.element) <= 0;
+      boolean belowHi = compare(hi, t.element) >= 0;
+      if (aboveLo)
+        forEachInRange(t.left, lo, hi, action);
+      if (aboveLo && belowHi)
+        for (int w = weight(t); w > 0; w--)
+          action.accept(t.element);
+      if (!belowHi)
+        return;
+      t = t.right;
+    }
+  }
+  
+  /**
+   * Iterate, in ascending order, over the elements in the closed range
+   * [lo, hi]. A null bound leaves that end of the range open.
+   * 
+   * The iterator must not be used after the tree is modified.
+   *
+   * @param lo Lower bound, inclusive, or null
+   * @param hi Upper bound, inclusive, or null
+   * @return Iterator over the range
+   */
+  public Iterator<T> rangeIterator(T lo, T hi){
+    return new RangeIterator(lo, true, hi, true);
+  }
+  
+  /**
+   * Iterate over the tree's elements in ascending order.
+   * 
+   * The iterator allocates nothing per element. It must not be used
+   * after the tree is modified.
+   *
+   * @return In-order iterator
+   */
+  public Iterator<T> iterator(){
+    return new RangeIterator(null, true, null, true);
+  }
+  
+  /**
+   * Create a spliterator over the tree's elements in ascending order.
+   * 
+   * Splitting hands off the elements below the highest remaining node
+   * (the one nearest the root), so the parts follow the tree's subtrees
+   * and their sizes are known exactly from the subtree sizes.
+   *
+   * @return Spliterator over the tree
+   */
+  public Spliterator<T> spliterator(){
+    return new TreeSpliterator(null, null, size());
+  }
+  
+  /**
+   * @return Sequential stream of the tree's elements, in ascending order
+   */
+  public Stream<T> stream(){
+    return StreamSupport.stream(spliterator(), false);
+  }
+  
+  /**
+   * @return Parallel stream of the tree's elements, partitioned by subtree
+   */
+  public Stream<T> parallelStream(){
+    return StreamSupport.stream(spliterator(), true);
+  }
+  
+  /**
+   * In-order iterator over a bounded range of the tree.
+   * 
+   * Keeps the nodes whose element and right subtree are still to be
+   * visited on an explicit stack, so each step costs amortized O(1).
+   */
+  private class RangeIterator implements Iterator<T> {
+    private final AvlNode<T>[] stack;
+    private int depth;
+    private final T hi;
+    private final boolean hiInclusive;
+    
+    /**
+     * Node last returned, and how many more times to return it
+     */
+    private AvlNode<T> current;
+    private int repeat;
+    
+    /**
+     * @param lo          Lower bound, or null for none
+     * @param loInclusive True if an element equal to lo is in range
+     * @param hi          Upper bound, or null for none
+     * @param hiInclusive True if an element equal to hi is in range
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    RangeIterator(T lo, boolean loInclusive, T hi, boolean hiInclusive){
+      this.stack = (AvlNode<T>[]) new AvlNode[height(root) + 1];
+      this.hi = hi;
+      this.hiInclusive = hiInclusive;
+      
+      // Push the path to the first element in range
+      AvlNode<T> t = root;
+      while (t != null){
+        int cmp = lo == null ? -1 : compare(lo, t.element);
+        if (cmp > 0 || (cmp == 0 && !loInclusive))
+          t = t.right;
+        else {
+          stack[depth++] = t;
+          t = t.left;
+        }
+      }
+    }
+    
+    public boolean hasNext(){
+      if (repeat > 0)
+        return true;
+      if (depth == 0)
+        return false;
+      if (hi == null)
+        return true;
+      int cmp = compare(hi, stack[depth - 1].element);
+      return cmp > 0 || (cmp == 0 && hiInclusive);
+    }
+    
+    public T next(){
+      if (!hasNext())
+        throw new NoSuchElementException();
+      if (repeat > 0){
+        repeat--;
+        return current.element;
+      }
+      
+      AvlNode<T> t = stack[--depth];
+      stack[depth] = null;
+      for (AvlNode<T> c = t.right; c != null; c = c.left)
+        stack[depth++] = c;
+      current = t;
+      repeat = weight(t) - 1;
+      return t.element;
+    }
+  }
+  
+  /**
+   * Spliterator over the half-open range [lo, hi) of the tree.
+   * 
+   * Until traversal begins, the range is described only by its bounds,
+   * so it can be split at the range's highest node; once traversal
+   * begins, a RangeIterator takes over and splitting stops.
+   */
+  private class TreeSpliterator implements Spliterator<T> {
+    private T lo;
+    private final T hi;
+    private int remaining;
+    private RangeIterator it;
+    
+    /**
+     * @param lo        Lower bound, inclusive, or null for none
+     * @param hi        Upper bound, exclusive, or null for none
+     * @param remaining Number of elements in the range
+     */
+    TreeSpliterator(T lo, T hi, int remaining){
+      this.lo = lo;
+      this.hi = hi;
+      this.remaining = remaining;
+    }
+    
+    public Spliterator<T> trySplit(){
+      if (it != null)
+        return null;
+      
+      // Find the highest node strictly inside (lo, hi)
+      AvlNode<T> t = root;
+      while (t != null){
+        if (lo != null && compare(t.element, lo) <= 0)
+          t = t.right;
+        else if (hi != null && compare(t.element, hi) >= 0)
+          t = t.left;
+        else
+          break;
+      }
+      if (t == null)
+        return null;
+      
+      int below = rank(t.element, false) - (lo == null ? 0 : rank(lo, false));
+      TreeSpliterator prefix = new TreeSpliterator(lo, t.element, below);
+      lo = t.element;
+      remaining -= below;
+      return prefix;
+    }
+    
+    public boolean tryAdvance(Consumer<? super T> action){
+      if (it == null)
+        it = new RangeIterator(lo, true, hi, false);
+      if (!it.hasNext())
+        return false;
+      remaining--;
+      action.accept(it.next());
+      return true;
+    }
+    
+    public void forEachRemaining(Consumer<? super T> action){
+      if (it == null)
+        it = new RangeIterator(lo, true, hi, false);
+      while (it.hasNext())
+        action.accept(it.next());
+      remaining = 0;
+    }
+    
+    public long estimateSize(){
+      return remaining;
+    }
+    
+    public int characteristics(){
+      return ORDERED | SORTED | NONNULL | SIZED | SUBSIZED | (isDistinct() ? DISTINCT : 0);
+    }
+    
+    public Comparator<? super T> getComparator(){
+      return comparator;
     }
-
-    return true; // Can only reach here if node was found
   }
   
   /***********************************************************************/
   // Diagnostic functions for the tree
-  public boolean checkBalanceOfTree(AvlTree.AvlNode<Integer> current) {
+  
+  /**
+   * Check every invariant of the tree in a single O(n) pass: each
+   * element lies strictly within the bounds inherited from its
+   * ancestors, each stored height is one more than the taller child's,
+   * the children's heights differ by at most one, and each stored size
+   * is the sum of the children's sizes and the node's weight. Large
+   * trees are checked across the common fork/join pool.
+   * 
+   * Every node is checked before its children are entered, so by
+   * induction the stored heights are the true heights, and corrupt
+   * links fail a check long before the recursion gets deep.
+   * 
+   * @throws IllegalStateException describing the first violation found
+   */
+  public void validate(){
+    if (size(root) < PARALLEL_THRESHOLD)
+      validate(root, null, null);
+    else
+      ForkJoinPool.commonPool().invoke(new ValidateTask(root, null, null));
+  }
+  
+  /**
+   * @return True if {@link #validate()} finds no violation
+   */
+  public boolean isValid(){
+    try {
+      validate();
+      return true;
+    } catch (IllegalStateException e){
+      return false;
+    }
+  }
+  
+  /**
+   * Internal validation method; check a subtree whose elements must lie
+   * strictly between lo and hi.
+   * 
+   * @param t  Root of the subtree
+   * @param lo Exclusive lower bound, or null for none
+   * @param hi Exclusive upper bound, or null for none
+   */
+  private void validate(AvlNode<T> t, T lo, T hi){
+    while (t != null){
+      checkNode(t, lo, hi);
+      validate(t.left, lo, t.element);
+      lo = t.element;
+      t = t.right;
+    }
+  }
+  
+  /**
+   * Check one node against its bounds and its children's stored fields.
+   * 
+   * @param t  Node to check
+   * @param lo Exclusive lower bound, or null for none
+   * @param hi Exclusive upper bound, or null for none
+   * @throws IllegalStateException if the node violates an invariant
+   */
+  private void checkNode(AvlNode<T> t, T lo, T hi){
+    if ((lo != null && compare(t.element, lo) <= 0) || (hi != null && compare(t.element, hi) >= 0))
+      throw new IllegalStateException("Element " + t.element + " is out of order between "
+                                      + lo + " and " + hi);
+    int leftHeight = height(t.left), rightHeight = height(t.right);
+    if (t.height != max(leftHeight, rightHeight) + 1)
+      throw new IllegalStateException("Node " + t.element + " has height " + t.height
+                                      + " but children of heights " + leftHeight + " and " + rightHeight);
+    if (leftHeight - rightHeight > 1 || rightHeight - leftHeight > 1)
+      throw new IllegalStateException("Node " + t.element + " is unbalanced: " + leftHeight
+                                      + " against " + rightHeight);
+    int weight = weight(t);
+    if (weight < 1 || t.size != size(t.left) + size(t.right) + weight)
+      throw new IllegalStateException("Node " + t.element + " has size " + t.size
+                                      + " but children of sizes " + size(t.left) + " and " + size(t.right));
+  }
+  
+  /**
+   * Fork/join task validating one subtree.
+   */
+  private class ValidateTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
     
-    boolean balancedRight = true, balancedLeft = true;
-    int leftHeight = 0, rightHeight = 0;
+    private final AvlNode<T> t;
+    private final T lo, hi;
     
-    if (current.right != null) {
-      balancedRight = checkBalanceOfTree(current.right);
-      rightHeight = getDepth(current.right);
+    ValidateTask(AvlNode<T> t, T lo, T hi){
+      this.t = t;
+      this.lo = lo;
+      this.hi = hi;
     }
     
-    if (current.left != null) {
-      balancedLeft = checkBalanceOfTree(current.left);
-      leftHeight = getDepth(current.left);
+    protected void compute(){
+      if (size(t) < PARALLEL_THRESHOLD){
+        validate(t, lo, hi);
+        return;
+      }
+      checkNode(t, lo, hi);
+      ValidateTask left = new ValidateTask(t.left, lo, t.element);
+      left.fork();
+      new ValidateTask(t.right, t.element, hi).compute();
+      left.join();
     }
-    
-    return balancedLeft && balancedRight && Math.abs(leftHeight - rightHeight) < 2;
+  }
+  
+  /**
+   * Check that no node's subtrees differ in height by more than one,
+   * computing the true heights bottom-up in O(n) rather than trusting
+   * the stored ones.
+   * 
+   * @param current Root of the subtree to check
+   * @return True if the subtree is balanced
+   */
+  public boolean checkBalanceOfTree(AvlTree.AvlNode<Integer> current) {
+    return balancedHeight(current) != UNBALANCED;
+  }
+  
+  private static final int UNBALANCED = -2;
+  
+  /**
+   * @return True height of a subtree, or UNBALANCED if any of its nodes is
+   */
+  private static int balancedHeight(AvlNode<?> t) {
+    if (t == null)
+      return -1;
+    int leftHeight = balancedHeight(t.left);
+    if (leftHeight == UNBALANCED)
+      return UNBALANCED;
+    int rightHeight = balancedHeight(t.right);
+    if (rightHeight == UNBALANCED || Math.abs(leftHeight - rightHeight) > 1)
+      return UNBALANCED;
+    return Math.max(leftHeight, rightHeight) + 1;
   }
   
   public int getDepth(AvlTree.AvlNode<Integer> n) {
@@ -492,22 +2286,70 @@ class AvlTree<T extends Comparable<? super T>> {
     return Math.max(rightHeight, leftHeight)+1;
   }
   
+  /**
+   * Check the binary search tree property over a whole subtree: every
+   * element must lie strictly between the bounds inherited from its
+   * ancestors, not just on the right side of its parent.
+   * 
+   * @param current Root of the subtree to check
+   * @return True if the subtree is ordered
+   */
   public boolean checkOrderingOfTree(AvlTree.AvlNode<Integer> current) {
-    if(current.left != null) {
-      if(current.left.element.compareTo(current.element) > 0)
+    return isOrdered(current, null, null);
+  }
+  
+  private static boolean isOrdered(AvlNode<Integer> t, Integer lo, Integer hi) {
+    while (t != null) {
+      if ((lo != null && t.element.compareTo(lo) <= 0) || (hi != null && t.element.compareTo(hi) >= 0))
         return false;
-      else
-        return checkOrderingOfTree(current.left);
-    } else  if(current.right != null) {
-      if(current.right.element.compareTo(current.element) < 0)
+      if (!isOrdered(t.left, lo, t.element))
         return false;
-      else
-        return checkOrderingOfTree(current.right);
-    } else if(current.left == null && current.right == null)
-      return true;
-    
+      lo = t.element;
+      t = t.right;
+    }
     return true;
   }
+  
+  /**
+   * Check the nodes on the search path to an element, in O(log n): each
+   * against the bounds set by the nodes above it, and against its
+   * children's stored heights and sizes. Cheap enough to run on a sample
+   * of updates; see {@link #setValidationSampling(int)}.
+   * 
+   * @param x Element whose search path to check; it need not be present
+   * @throws IllegalStateException describing the first violation found
+   */
+  public void checkPath(T x){
+    T lo = null, hi = null;
+    AvlNode<T> t = root;
+    while (t != null){
+      checkNode(t, lo, hi);
+      int cmp = compare(x, t.element);
+      if (cmp == 0)
+        return;
+      if (cmp < 0){
+        hi = t.element;
+        t = t.left;
+      }
+      else {
+        lo = t.element;
+        t = t.right;
+      }
+    }
+  }
+  
+  /**
+   * Check the search path of every n-th insert or remove, so that
+   * corruption, such as from an inconsistent comparator, is caught close
+   * to the update that exposed it. The update that fails the check
+   * throws an IllegalStateException after it has been applied.
+   * 
+   * @param n Updates per check; zero to turn checking off
+   */
+  public void setValidationSampling(int n){
+    sampleEvery = n;
+    updatesUntilCheck = n;
+  }
 
   /**
    * Main entry point; contains test code for the tree.
@@ -0,0 +1,85 @@
+package justinethier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by {@link AvlTree}.
+ *
+ * Each event is created and begun unconditionally, but its fields are
+ * only filled in once <code>shouldCommit()</code> says the event is
+ * enabled and over its threshold. With JFR off, <code>begin()</code> and
+ * <code>shouldCommit()</code> do nothing and the JIT eliminates the
+ * event allocation, so instrumented paths cost nothing.
+ *
+ * @author Justin Ethier
+ */
+final class AvlTreeEvents {
+  private AvlTreeEvents (){}
+
+  /**
+   * Fields shared by all tree events.
+   */
+  @Category ("AVL Tree")
+  @StackTrace (false)
+  abstract static class TreeEvent extends Event {
+    @Label ("Tree Id")
+    @Description ("Identity hash code of the tree")
+    int treeId;
+
+    @Label ("Size")
+    @Description ("Number of elements in the tree")
+    int size;
+
+    @Label ("Height")
+    @Description ("Height of the tree")
+    int height;
+  }
+
+  /**
+   * A rebalancing rotation made by insert or remove.
+   */
+  @Name ("justinethier.AvlTree.Rotation")
+  @Label ("AVL Rotation")
+  static final class RotationEvent extends TreeEvent {
+    @Label ("Double")
+    @Description ("True for a double rotation, false for a single one")
+    boolean doubleRotation;
+  }
+
+  /**
+   * A search path longer than the tree's deep search threshold.
+   */
+  @Name ("justinethier.AvlTree.DeepSearch")
+  @Label ("AVL Deep Search")
+  @StackTrace (true)
+  static final class DeepSearchEvent extends TreeEvent {
+    @Label ("Operation")
+    String operation;
+
+    @Label ("Depth")
+    @Description ("Number of nodes visited")
+    int depth;
+
+    @Label ("Threshold")
+    int threshold;
+  }
+
+  /**
+   * A whole-tree operation: bulk load, join, split or set operation.
+   */
+  @Name ("justinethier.AvlTree.BulkOperation")
+  @Label ("AVL Bulk Operation")
+  static final class BulkOperationEvent extends TreeEvent {
+    @Label ("Operation")
+    String operation;
+
+    @Label ("Input Size")
+    @Description ("Number of elements in the operation's inputs")
+    long inputSize;
+  }
+}
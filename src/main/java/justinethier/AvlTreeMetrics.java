@@ -0,0 +1,63 @@
+package justinethier;
+
+/**
+ * Receives events from the mutation and search paths of an {@link AvlTree}.
+ *
+ * All methods default to doing nothing, so an implementation overrides
+ * only what it records. Trees start out with {@link #NONE}.
+ *
+ * Recording can also be stripped out entirely by starting the JVM with
+ * <code>-Djustinethier.avltree.metrics=false</code>: every call site is
+ * guarded by the constant {@link #ENABLED}, so the JIT compiles the
+ * guarded calls away.
+ *
+ * @author Justin Ethier
+ */
+interface AvlTreeMetrics {
+  /**
+   * False if metrics recording has been disabled for this JVM
+   */
+  boolean ENABLED = !"false".equalsIgnoreCase (System.getProperty ("justinethier.avltree.metrics"));
+
+  /**
+   * Metrics sink that discards every event
+   */
+  AvlTreeMetrics NONE = new AvlTreeMetrics (){};
+
+  /**
+   * An element was inserted.
+   */
+  default void onInsert (){}
+
+  /**
+   * An insert was rejected because the element was already present.
+   */
+  default void onDuplicate (){}
+
+  /**
+   * An element was removed.
+   */
+  default void onRemove (){}
+
+  /**
+   * A remove found nothing to remove.
+   */
+  default void onRemoveMiss (){}
+
+  /**
+   * A single rotation was performed to rebalance the tree.
+   */
+  default void onSingleRotation (){}
+
+  /**
+   * A double rotation was performed to rebalance the tree.
+   */
+  default void onDoubleRotation (){}
+
+  /**
+   * A search (by insert, remove or contains) finished.
+   *
+   * @param length Number of nodes visited
+   */
+  default void onSearchPath (int length){}
+}
@@ -0,0 +1,453 @@
+package justinethier;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * NavigableSet backed by an AvlTree.
+ *
+ * subSet, headSet, tailSet and descendingSet return live views that share
+ * the tree; each view is just a pair of bounds and a direction, so
+ * nothing is copied and changes show through in both directions. size()
+ * is O(1) on the whole set and O(log n) on a bounded view, using the
+ * tree's subtree sizes. Iterators are fail-fast: a structural change made
+ * other than through the iterator itself makes the iterator throw
+ * ConcurrentModificationException.
+ *
+ * Elements may not be null.
+ *
+ * @author Justin Ethier
+ */
+class AvlTreeSet<T> extends AbstractSet<T> implements NavigableSet<T> {
+  /**
+   * The backing tree, counting its structural changes
+   */
+  private static final class Tree<T> extends AvlTree<T> {
+    int modCount;
+
+    Tree (Comparator<? super T> comparator){
+      super (comparator);
+    }
+  }
+
+  private final Tree<T> tree;
+
+  // Bounds of this view, in the tree's order; fromStart and toEnd mean
+  // the view is unbounded on that side
+  private final boolean fromStart, toEnd;
+  private final T lo, hi;
+  private final boolean loInclusive, hiInclusive;
+
+  /**
+   * True if this view runs in the reverse of the tree's order
+   */
+  private final boolean descending;
+
+  /**
+   * Creates an empty set ordered by the elements' natural ordering
+   */
+  public AvlTreeSet (){
+    this ((Comparator<? super T>) null);
+  }
+
+  /**
+   * Creates an empty set ordered by the given comparator
+   *
+   * @param comparator Element ordering, or null for the natural ordering
+   */
+  public AvlTreeSet (Comparator<? super T> comparator){
+    this (new Tree<T> (comparator), true, null, false, true, null, false, false);
+  }
+
+  /**
+   * Creates a set holding the given elements, ordered by their natural
+   * ordering
+   *
+   * @param c Elements to add
+   */
+  public AvlTreeSet (Collection<? extends T> c){
+    this ();
+    addAll (c);
+  }
+
+  private AvlTreeSet (Tree<T> tree, boolean fromStart, T lo, boolean loInclusive,
+                      boolean toEnd, T hi, boolean hiInclusive, boolean descending){
+    this.tree = tree;
+    this.fromStart = fromStart;
+    this.lo = lo;
+    this.loInclusive = loInclusive;
+    this.toEnd = toEnd;
+    this.hi = hi;
+    this.hiInclusive = hiInclusive;
+    this.descending = descending;
+  }
+
+  /*********************************************************************/
+  // Bounds checks, in the tree's order
+
+  private boolean tooLow (T x){
+    if (fromStart)
+      return false;
+    int cmp = tree.compare (x, lo);
+    return cmp < 0 || (cmp == 0 && !loInclusive);
+  }
+
+  private boolean tooHigh (T x){
+    if (toEnd)
+      return false;
+    int cmp = tree.compare (x, hi);
+    return cmp > 0 || (cmp == 0 && !hiInclusive);
+  }
+
+  private boolean inRange (T x){
+    return !tooLow (x) && !tooHigh (x);
+  }
+
+  /**
+   * Determine if x may bound a view of this view: if inclusive, it must
+   * be in range; otherwise it may also equal an exclusive bound.
+   */
+  private boolean inRange (T x, boolean inclusive){
+    if (inclusive)
+      return inRange (x);
+    return (fromStart || tree.compare (x, lo) >= 0) && (toEnd || tree.compare (x, hi) <= 0);
+  }
+
+  /*********************************************************************/
+  // Navigation in the tree's order, restricted to this view's range
+
+  private AvlTree.AvlNode<T> lowestNode (){
+    AvlTree.AvlNode<T> t = fromStart ? leftmost () : tree.higherNode (lo, loInclusive);
+    return t == null || tooHigh (t.element) ? null : t;
+  }
+
+  private AvlTree.AvlNode<T> highestNode (){
+    AvlTree.AvlNode<T> t = toEnd ? rightmost () : tree.lowerNode (hi, hiInclusive);
+    return t == null || tooLow (t.element) ? null : t;
+  }
+
+  private AvlTree.AvlNode<T> leftmost (){
+    AvlTree.AvlNode<T> t = tree.root;
+    if (t != null)
+      while (t.left != null)
+        t = t.left;
+    return t;
+  }
+
+  private AvlTree.AvlNode<T> rightmost (){
+    AvlTree.AvlNode<T> t = tree.root;
+    if (t != null)
+      while (t.right != null)
+        t = t.right;
+    return t;
+  }
+
+  private AvlTree.AvlNode<T> aboveNode (T x, boolean inclusive){
+    if (tooLow (x))
+      return lowestNode ();
+    AvlTree.AvlNode<T> t = tree.higherNode (x, inclusive);
+    return t == null || tooHigh (t.element) ? null : t;
+  }
+
+  private AvlTree.AvlNode<T> belowNode (T x, boolean inclusive){
+    if (tooHigh (x))
+      return highestNode ();
+    AvlTree.AvlNode<T> t = tree.lowerNode (x, inclusive);
+    return t == null || tooLow (t.element) ? null : t;
+  }
+
+  private static <T> T element (AvlTree.AvlNode<T> t){
+    return t == null ? null : t.element;
+  }
+
+  private static <T> T elementOrThrow (AvlTree.AvlNode<T> t){
+    if (t == null)
+      throw new NoSuchElementException ();
+    return t.element;
+  }
+
+  /*********************************************************************/
+  // Set
+
+  @Override
+  public int size (){
+    if (fromStart && toEnd)
+      return tree.size ();
+    int above = toEnd ? tree.size () : tree.rank (hi, hiInclusive);
+    int below = fromStart ? 0 : tree.rank (lo, !loInclusive);
+    return Math.max (0, above - below);
+  }
+
+  @Override
+  public boolean isEmpty (){
+    return fromStart && toEnd ? tree.isEmpty () : lowestNode () == null;
+  }
+
+  @Override
+  @SuppressWarnings ("unchecked")
+  public boolean contains (Object o){
+    T x = (T) o;
+    return inRange (x) && tree.contains (x);
+  }
+
+  @Override
+  public boolean add (T x){
+    if (x == null)
+      throw new NullPointerException ();
+    if (!inRange (x))
+      throw new IllegalArgumentException ("Element out of range: " + x);
+    if (!tree.insert (x))
+      return false;
+    tree.modCount++;
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings ("unchecked")
+  public boolean remove (Object o){
+    T x = (T) o;
+    if (!inRange (x) || !tree.remove (x))
+      return false;
+    tree.modCount++;
+    return true;
+  }
+
+  @Override
+  public void clear (){
+    if (fromStart && toEnd){
+      tree.makeEmpty ();
+      tree.modCount++;
+    }
+    else
+      super.clear ();
+  }
+
+  @Override
+  public Iterator<T> iterator (){
+    return new Itr (!descending);
+  }
+
+  @Override
+  public Iterator<T> descendingIterator (){
+    return new Itr (descending);
+  }
+
+  /*********************************************************************/
+  // SortedSet and NavigableSet
+
+  @Override
+  public Comparator<? super T> comparator (){
+    return descending ? Collections.reverseOrder (tree.comparator ()) : tree.comparator ();
+  }
+
+  @Override
+  public T first (){
+    return elementOrThrow (descending ? highestNode () : lowestNode ());
+  }
+
+  @Override
+  public T last (){
+    return elementOrThrow (descending ? lowestNode () : highestNode ());
+  }
+
+  @Override
+  public T lower (T x){
+    return element (descending ? aboveNode (x, false) : belowNode (x, false));
+  }
+
+  @Override
+  public T floor (T x){
+    return element (descending ? aboveNode (x, true) : belowNode (x, true));
+  }
+
+  @Override
+  public T ceiling (T x){
+    return element (descending ? belowNode (x, true) : aboveNode (x, true));
+  }
+
+  @Override
+  public T higher (T x){
+    return element (descending ? belowNode (x, false) : aboveNode (x, false));
+  }
+
+  @Override
+  public T pollFirst (){
+    return poll (descending ? highestNode () : lowestNode ());
+  }
+
+  @Override
+  public T pollLast (){
+    return poll (descending ? lowestNode () : highestNode ());
+  }
+
+  private T poll (AvlTree.AvlNode<T> t){
+    if (t == null)
+      return null;
+    T x = t.element;
+    tree.remove (x);
+    tree.modCount++;
+    return x;
+  }
+
+  @Override
+  public NavigableSet<T> descendingSet (){
+    return new AvlTreeSet<T> (tree, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+  }
+
+  @Override
+  public NavigableSet<T> subSet (T fromElement, boolean fromInclusive, T toElement, boolean toInclusive){
+    if (descending)
+      return view (false, toElement, toInclusive, false, fromElement, fromInclusive);
+    return view (false, fromElement, fromInclusive, false, toElement, toInclusive);
+  }
+
+  @Override
+  public NavigableSet<T> headSet (T toElement, boolean inclusive){
+    if (descending)
+      return view (false, toElement, inclusive, true, null, false);
+    return view (true, null, false, false, toElement, inclusive);
+  }
+
+  @Override
+  public NavigableSet<T> tailSet (T fromElement, boolean inclusive){
+    if (descending)
+      return view (true, null, false, false, fromElement, inclusive);
+    return view (false, fromElement, inclusive, true, null, false);
+  }
+
+  @Override
+  public SortedSet<T> subSet (T fromElement, T toElement){
+    return subSet (fromElement, true, toElement, false);
+  }
+
+  @Override
+  public SortedSet<T> headSet (T toElement){
+    return headSet (toElement, false);
+  }
+
+  @Override
+  public SortedSet<T> tailSet (T fromElement){
+    return tailSet (fromElement, true);
+  }
+
+  /**
+   * Create a view narrowing this one, in the same direction. A side left
+   * open keeps this view's bound.
+   *
+   * @throws IllegalArgumentException if a new bound lies outside this
+   *         view, or the bounds are the wrong way round
+   */
+  private AvlTreeSet<T> view (boolean openLo, T newLo, boolean newLoInclusive,
+                              boolean openHi, T newHi, boolean newHiInclusive){
+    if (!openLo){
+      if (newLo == null)
+        throw new NullPointerException ();
+      if (!inRange (newLo, newLoInclusive))
+        throw new IllegalArgumentException ("Bound out of range: " + newLo);
+    }
+    if (!openHi){
+      if (newHi == null)
+        throw new NullPointerException ();
+      if (!inRange (newHi, newHiInclusive))
+        throw new IllegalArgumentException ("Bound out of range: " + newHi);
+    }
+    if (!openLo && !openHi && tree.compare (newLo, newHi) > 0)
+      throw new IllegalArgumentException ("Lower bound above upper bound");
+
+    return new AvlTreeSet<T> (tree,
+                              openLo ? fromStart : false, openLo ? lo : newLo,
+                              openLo ? loInclusive : newLoInclusive,
+                              openHi ? toEnd : false, openHi ? hi : newHi,
+                              openHi ? hiInclusive : newHiInclusive,
+                              descending);
+  }
+
+  /*********************************************************************/
+
+  /**
+   * Fail-fast iterator over the view's range, in either direction.
+   *
+   * Like the tree's range iterator, it keeps the nodes still to be
+   * visited on an explicit stack. Removing through the iterator changes
+   * the tree's shape, so the stack is then rebuilt from the removed
+   * element.
+   */
+  private final class Itr implements Iterator<T> {
+    private final boolean ascending;
+    private AvlTree.AvlNode<T>[] stack;
+    private int depth;
+    private T lastReturned;
+    private int expectedModCount = tree.modCount;
+
+    Itr (boolean ascending){
+      this.ascending = ascending;
+      if (ascending)
+        seek (fromStart, lo, loInclusive);
+      else
+        seek (toEnd, hi, hiInclusive);
+    }
+
+    /**
+     * Push the path to the first element at or past a starting point,
+     * in the iterator's direction.
+     *
+     * @param open      True to start at the very end of the tree
+     * @param start     Starting point
+     * @param inclusive True if an element equal to start is included
+     */
+    @SuppressWarnings ({"rawtypes", "unchecked"})
+    private void seek (boolean open, T start, boolean inclusive){
+      stack = (AvlTree.AvlNode<T>[]) new AvlTree.AvlNode[tree.height (tree.root) + 1];
+      depth = 0;
+      AvlTree.AvlNode<T> t = tree.root;
+      while (t != null){
+        int cmp = open ? (ascending ? -1 : 1) : tree.compare (start, t.element);
+        boolean past = ascending ? cmp < 0 || (cmp == 0 && inclusive) : cmp > 0 || (cmp == 0 && inclusive);
+        if (past){
+          stack[depth++] = t;
+          t = ascending ? t.left : t.right;
+        }
+        else
+          t = ascending ? t.right : t.left;
+      }
+    }
+
+    public boolean hasNext (){
+      if (tree.modCount != expectedModCount)
+        throw new ConcurrentModificationException ();
+      if (depth == 0)
+        return false;
+      T x = stack[depth - 1].element;
+      return ascending ? !tooHigh (x) : !tooLow (x);
+    }
+
+    public T next (){
+      if (!hasNext ())
+        throw new NoSuchElementException ();
+      AvlTree.AvlNode<T> t = stack[--depth];
+      stack[depth] = null;
+      for (AvlTree.AvlNode<T> c = ascending ? t.right : t.left; c != null; c = ascending ? c.left : c.right)
+        stack[depth++] = c;
+      lastReturned = t.element;
+      return lastReturned;
+    }
+
+    public void remove (){
+      if (lastReturned == null)
+        throw new IllegalStateException ();
+      if (tree.modCount != expectedModCount)
+        throw new ConcurrentModificationException ();
+      tree.remove (lastReturned);
+      expectedModCount = ++tree.modCount;
+      seek (false, lastReturned, false);
+      lastReturned = null;
+    }
+  }
+}
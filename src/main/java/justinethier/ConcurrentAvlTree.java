@@ -0,0 +1,138 @@
+package justinethier;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe AVL Tree with non-blocking reads.
+ *
+ * The tree is a {@link PersistentAvlTree} held in a volatile field. A
+ * writer builds the next version (copying only its root-to-leaf path)
+ * and publishes it, so readers never lock: each read works on whichever
+ * complete version was current when it started. Writers are serialized
+ * by an internal lock.
+ *
+ * @author Justin Ethier
+ */
+class ConcurrentAvlTree<T extends Comparable<? super T>> {
+  /**
+   * Current version of the tree
+   */
+  private volatile PersistentAvlTree<T> current;
+
+  /**
+   * Serializes writers
+   */
+  private final ReentrantLock writeLock = new ReentrantLock ();
+
+  /**
+   * Avl Tree Constructor.
+   *
+   * Creates an empty tree
+   */
+  public ConcurrentAvlTree (){
+    current = PersistentAvlTree.empty ();
+  }
+
+  /**
+   * Insert an element into the tree.
+   *
+   * @param x Element to insert into the tree
+   * @return True - Success, the Element was added.
+   *         False - Error, the element was a duplicate.
+   */
+  public boolean insert (T x){
+    writeLock.lock ();
+    try {
+      PersistentAvlTree<T> version = current, updated = version.insert (x);
+      if (updated == version)
+        return false;
+      current = updated;
+      return true;
+    } finally {
+      writeLock.unlock ();
+    }
+  }
+
+  /**
+   * Remove from the tree. Nothing is done if x is not found.
+   *
+   * @param x the item to remove.
+   * @return True if the item was found and removed
+   */
+  public boolean remove (T x){
+    writeLock.lock ();
+    try {
+      PersistentAvlTree<T> version = current, updated = version.remove (x);
+      if (updated == version)
+        return false;
+      current = updated;
+      return true;
+    } finally {
+      writeLock.unlock ();
+    }
+  }
+
+  /**
+   * Take a point-in-time snapshot of the tree, in O(1). The snapshot is
+   * unaffected by later updates.
+   *
+   * @return Current version of the tree
+   */
+  public PersistentAvlTree<T> snapshot (){
+    return current;
+  }
+
+  /**
+   * Search for an element within the tree. Never blocks.
+   *
+   * @param x Element to find
+   * @return True if the element is found, false otherwise
+   */
+  public boolean contains (T x){
+    return current.contains (x);
+  }
+
+  /**
+   * Find the smallest item in the tree.
+   * @return smallest item or null if empty.
+   */
+  public T findMin (){
+    return current.findMin ();
+  }
+
+  /**
+   * Find the largest item in the tree.
+   * @return the largest item of null if empty.
+   */
+  public T findMax (){
+    return current.findMax ();
+  }
+
+  /**
+   * @return Number of elements in the tree
+   */
+  public int size (){
+    return current.size ();
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return current.isEmpty ();
+  }
+
+  /**
+   * Deletes all nodes from the tree.
+   */
+  public void makeEmpty (){
+    writeLock.lock ();
+    try {
+      current = PersistentAvlTree.empty ();
+    } finally {
+      writeLock.unlock ();
+    }
+  }
+}
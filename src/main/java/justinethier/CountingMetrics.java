@@ -0,0 +1,94 @@
+package justinethier;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AvlTreeMetrics implementation that counts each event with a striped
+ * LongAdder and keeps a histogram of search path lengths.
+ *
+ * One instance may be shared by several trees and read from any thread,
+ * e.g. by a monitoring exporter, while they are being updated.
+ *
+ * @author Justin Ethier
+ */
+class CountingMetrics implements AvlTreeMetrics {
+  private final LongAdder insertions = new LongAdder ();
+  private final LongAdder duplicates = new LongAdder ();
+  private final LongAdder removals = new LongAdder ();
+  private final LongAdder removeMisses = new LongAdder ();
+  private final LongAdder singleRotations = new LongAdder ();
+  private final LongAdder doubleRotations = new LongAdder ();
+  private final Histogram searchPathLengths = new Histogram ();
+
+  public void onInsert (){
+    insertions.increment ();
+  }
+
+  public void onDuplicate (){
+    duplicates.increment ();
+  }
+
+  public void onRemove (){
+    removals.increment ();
+  }
+
+  public void onRemoveMiss (){
+    removeMisses.increment ();
+  }
+
+  public void onSingleRotation (){
+    singleRotations.increment ();
+  }
+
+  public void onDoubleRotation (){
+    doubleRotations.increment ();
+  }
+
+  public void onSearchPath (int length){
+    searchPathLengths.record (length);
+  }
+
+  public long getInsertions (){
+    return insertions.sum ();
+  }
+
+  public long getDuplicates (){
+    return duplicates.sum ();
+  }
+
+  public long getRemovals (){
+    return removals.sum ();
+  }
+
+  public long getRemoveMisses (){
+    return removeMisses.sum ();
+  }
+
+  public long getSingleRotations (){
+    return singleRotations.sum ();
+  }
+
+  public long getDoubleRotations (){
+    return doubleRotations.sum ();
+  }
+
+  /**
+   * @return Distribution of the number of nodes visited per search
+   */
+  public Histogram getSearchPathLengths (){
+    return searchPathLengths;
+  }
+
+  /**
+   * Reset all counters and the histogram to zero.
+   */
+  public void reset (){
+    insertions.reset ();
+    duplicates.reset ();
+    removals.reset ();
+    removeMisses.reset ();
+    singleRotations.reset ();
+    doubleRotations.reset ();
+    searchPathLengths.reset ();
+  }
+}
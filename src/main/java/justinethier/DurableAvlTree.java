@@ -0,0 +1,664 @@
+package justinethier;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * AVL Tree that survives crashes by logging every update.
+ *
+ * The tree lives in memory as an ordinary {@link AvlTree}. Every
+ * successful insert and remove is appended to a write-ahead log in the
+ * tree's directory, and the whole tree is periodically written as a
+ * snapshot in the binary form of {@link AvlTree#writeTo}, after which the
+ * log starts over. Opening the directory loads the latest snapshot and
+ * replays the log, stopping at the first torn or corrupt record.
+ *
+ * Log records reach the file through a FileChannel in batches: whichever
+ * thread flushes writes every record appended so far, and threads waiting
+ * on the same flush share its fsync (group commit). The {@link Durability}
+ * chosen at open decides how long an update waits.
+ *
+ * Replaying an insert or remove whose effect is already in the snapshot
+ * changes nothing, so a crash between writing a snapshot and emptying the
+ * log is harmless.
+ *
+ * All methods are thread-safe; they are serialized by an internal lock,
+ * which is released while waiting for the disk. Writing a snapshot holds
+ * the lock, so updates stall for the O(n) write. A failed snapshot leaves
+ * the log as it was, so updates carry on and the snapshot can be retried;
+ * a failed log write, on the other hand, stops all further updates.
+ *
+ * While open, the tree holds an exclusive file lock in its directory, so
+ * that no other process can open the same directory and interleave its
+ * writes. File locks belong to the whole JVM, so a second open in the
+ * same JVM is refused from a list of open directories before the lock
+ * file is touched.
+ *
+ * @author Justin Ethier
+ */
+class DurableAvlTree<T> implements Closeable {
+  /**
+   * When an update returns, relative to its log record reaching the disk.
+   */
+  public enum Durability {
+    /**
+     * After the record is forced to disk; concurrent updates share one
+     * fsync. Survives power loss.
+     */
+    FSYNC,
+
+    /**
+     * After the record is written to the operating system, without
+     * fsync. Survives a crash of the process but not of the machine.
+     */
+    WRITE,
+
+    /**
+     * At once; records are written and forced by a background flush
+     * every few milliseconds, or by {@link #sync()}. A crash loses at most
+     * the last interval's updates.
+     */
+    BATCH
+  }
+
+  private static final String SNAPSHOT = "snapshot";
+  private static final String LOG = "wal";
+  private static final String LOCK = "lock";
+
+  private static final byte INSERT = 1;
+  private static final byte REMOVE = 2;
+
+  /**
+   * Bytes of framing before each record's payload: length and CRC-32
+   */
+  private static final int RECORD_HEADER = 8;
+
+  /**
+   * Pending log bytes above which an appending thread flushes in BATCH mode
+   */
+  private static final int MAX_PENDING = 1 << 20;
+
+  private static final long FLUSH_INTERVAL_MILLIS =
+    Long.getLong ("justinethier.avltree.flushIntervalMillis", 10);
+
+  /**
+   * Real paths of the directories open in this JVM. Closing any channel
+   * on a locked file releases the JVM's lock on it, so a directory found
+   * here must be refused without opening its lock file at all.
+   */
+  private static final Set<Path> OPEN = new HashSet<Path> ();
+
+  private final Path dir;
+
+  /**
+   * Real path of the directory, as entered in OPEN
+   */
+  private final Path realDir;
+
+  private final ElementCodec<T> codec;
+  private final Durability durability;
+  private final AvlTree<T> tree;
+  private final FileChannel log;
+
+  /**
+   * Holds the directory's file lock for as long as it is open
+   */
+  private final FileChannel lockFile;
+
+  private final ReentrantLock lock = new ReentrantLock ();
+
+  /**
+   * Signalled whenever a flush finishes
+   */
+  private final Condition flushDone = lock.newCondition ();
+
+  /**
+   * Records appended but not yet handed to the channel, and the buffer
+   * the next flush will swap in
+   */
+  private Batch pending = new Batch (), spare = new Batch ();
+
+  /**
+   * Scratch space for encoding one record's payload
+   */
+  private final ByteArrayOutputStream payload = new ByteArrayOutputStream ();
+  private final DataOutputStream payloadOut = new DataOutputStream (payload);
+  private final CRC32 crc = new CRC32 ();
+
+  // Record sequence numbers: appended to pending, written to the
+  // channel, and forced to disk
+  private long appended, written, durable;
+
+  /**
+   * True while some thread is writing or forcing the log
+   */
+  private boolean flushing;
+
+  /**
+   * Size of the log file, including records in flight
+   */
+  private long logSize;
+
+  /**
+   * Log size above which the background task writes a snapshot
+   */
+  private volatile long snapshotThreshold = 64L << 20;
+
+  /**
+   * First log write failure; the tree refuses further updates after one
+   */
+  private IOException failure;
+
+  private final ScheduledExecutorService flusher;
+  private boolean closed;
+
+  /**
+   * Growable byte buffer that can hand its contents to a channel
+   */
+  private static final class Batch extends ByteArrayOutputStream {
+    Batch (){
+      super (1 << 16);
+    }
+
+    ByteBuffer contents (){
+      return ByteBuffer.wrap (buf, 0, count);
+    }
+  }
+
+  private DurableAvlTree (Path dir, ElementCodec<T> codec, Comparator<? super T> comparator,
+                          Durability durability) throws IOException {
+    this.dir = dir;
+    this.codec = codec;
+    this.durability = durability;
+
+    Files.createDirectories (dir);
+    realDir = dir.toRealPath ();
+    lockFile = lock (realDir);
+    FileChannel log = null;
+    try {
+      Files.deleteIfExists (dir.resolve (SNAPSHOT + ".tmp"));
+      Path snapshot = dir.resolve (SNAPSHOT);
+      if (Files.exists (snapshot)){
+        try (InputStream in = Files.newInputStream (snapshot)){
+          tree = AvlTree.readFrom (in, codec, comparator);
+        }
+      }
+      else
+        tree = new AvlTree<T> (comparator);
+
+      log = FileChannel.open (dir.resolve (LOG), StandardOpenOption.CREATE,
+                              StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.log = log;
+      logSize = replay ();
+      log.truncate (logSize);
+      log.position (logSize);
+    } catch (IOException | RuntimeException e){
+      if (log != null)
+        log.close ();
+      unlock (realDir, lockFile);
+      throw e;
+    }
+
+    flusher = Executors.newSingleThreadScheduledExecutor (r -> {
+      Thread t = new Thread (r, "DurableAvlTree flusher " + dir);
+      t.setDaemon (true);
+      return t;
+    });
+    flusher.scheduleWithFixedDelay (this::background, FLUSH_INTERVAL_MILLIS,
+                                    FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Take the exclusive lock on a tree directory.
+   *
+   * @param dir Real path of the directory holding the snapshot and log
+   * @return Channel holding the lock; {@link #unlock} releases it
+   * @throws IOException if the directory is already open, here or in
+   *         another process
+   */
+  private static FileChannel lock (Path dir) throws IOException {
+    synchronized (OPEN){
+      if (!OPEN.add (dir))
+        throw new IOException ("Durable AVL tree is already open: " + dir);
+    }
+    FileChannel ch = null;
+    try {
+      ch = FileChannel.open (dir.resolve (LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      // No lock is held on the file in this JVM, so closing the channel
+      // on failure cannot release one
+      if (ch.tryLock () == null)
+        throw new IOException ("Durable AVL tree is already open: " + dir);
+      return ch;
+    } catch (IOException | RuntimeException e){
+      unlock (dir, ch);
+      throw e;
+    }
+  }
+
+  /**
+   * Release the lock taken by {@link #lock}.
+   *
+   * @param dir Real path of the directory
+   * @param ch  Channel holding the lock, or null if it was not opened
+   */
+  private static void unlock (Path dir, FileChannel ch) throws IOException {
+    try {
+      if (ch != null)
+        ch.close ();
+    } finally {
+      // Only now may another open in this JVM take the file lock
+      synchronized (OPEN){
+        OPEN.remove (dir);
+      }
+    }
+  }
+
+  /**
+   * Open, or create, a durable tree of naturally ordered elements.
+   *
+   * @param dir        Directory holding the snapshot and log
+   * @param codec      Reads and writes the elements
+   * @param durability When updates return
+   * @return The tree, recovered from its snapshot and log
+   * @throws IOException if the directory cannot be read or written, or
+   *         is already open
+   */
+  public static <T extends Comparable<? super T>> DurableAvlTree<T> open (Path dir, ElementCodec<T> codec,
+                                                                        Durability durability) throws IOException {
+    return new DurableAvlTree<T> (dir, codec, null, durability);
+  }
+
+  /**
+   * Open, or create, a durable tree.
+   *
+   * @param dir        Directory holding the snapshot and log
+   * @param codec      Reads and writes the elements
+   * @param comparator Element ordering, or null for the natural ordering;
+   *                   must be the same each time the tree is opened
+   * @param durability When updates return
+   * @return The tree, recovered from its snapshot and log
+   * @throws IOException if the directory cannot be read or written, or
+   *         is already open
+   */
+  public static <T> DurableAvlTree<T> open (Path dir, ElementCodec<T> codec, Comparator<? super T> comparator,
+                                          Durability durability) throws IOException {
+    return new DurableAvlTree<T> (dir, codec, comparator, durability);
+  }
+
+  /**
+   * Apply the log's records to the tree, stopping at the end of the file
+   * or at the first record that is torn or fails its checksum.
+   *
+   * @return Length of the log's valid prefix
+   */
+  private long replay () throws IOException {
+    DataInputStream in = new DataInputStream (new BufferedInputStream (Channels.newInputStream (log), 1 << 16));
+    long valid = 0, size = log.size ();
+    try {
+      while (valid + RECORD_HEADER <= size){
+        int length = in.readInt ();
+        int checksum = in.readInt ();
+        if (length < 1 || length > size - valid - RECORD_HEADER)
+          break;
+        byte[] record = new byte[length];
+        in.readFully (record);
+        crc.reset ();
+        crc.update (record, 0, length);
+        if ((int) crc.getValue () != checksum)
+          break;
+
+        DataInputStream fields = new DataInputStream (new ByteArrayInputStream (record));
+        byte op = fields.readByte ();
+        T x = codec.read (fields);
+        if (op == INSERT)
+          tree.insert (x);
+        else if (op == REMOVE)
+          tree.remove (x);
+        else
+          throw new StreamCorruptedException ("Unknown log record type " + op);
+        valid += RECORD_HEADER + length;
+      }
+    } catch (EOFException e){
+      // Torn final record
+    }
+    return valid;
+  }
+
+  /**
+   * Insert an element into the tree.
+   *
+   * @param x Element to insert into the tree
+   * @return True - Success, the Element was added.
+   *         False - Error, the element was a duplicate.
+   * @throws IOException if the log cannot be written
+   */
+  public boolean insert (T x) throws IOException {
+    return update (INSERT, x);
+  }
+
+  /**
+   * Remove from the tree. Nothing is done, or logged, if x is not found.
+   *
+   * @param x the item to remove.
+   * @return True if the item was found and removed
+   * @throws IOException if the log cannot be written
+   */
+  public boolean remove (T x) throws IOException {
+    return update (REMOVE, x);
+  }
+
+  private boolean update (byte op, T x) throws IOException {
+    lock.lock ();
+    try {
+      ensureWritable ();
+      boolean changed = op == INSERT ? tree.insert (x) : tree.remove (x);
+      if (!changed)
+        return false;
+      append (op, x);
+      switch (durability){
+        case FSYNC:
+          flush (appended, true);
+          break;
+        case WRITE:
+          flush (appended, false);
+          break;
+        default:
+          if (pending.size () >= MAX_PENDING)
+            flush (appended, false);
+      }
+      return true;
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Frame one record and add it to the pending batch. Called with the
+   * lock held.
+   */
+  private void append (byte op, T x) throws IOException {
+    payload.reset ();
+    payloadOut.writeByte (op);
+    codec.write (x, payloadOut);
+    byte[] bytes = payload.toByteArray ();
+    crc.reset ();
+    crc.update (bytes, 0, bytes.length);
+
+    writeInt (pending, bytes.length);
+    writeInt (pending, (int) crc.getValue ());
+    pending.write (bytes, 0, bytes.length);
+    appended++;
+  }
+
+  private static void writeInt (ByteArrayOutputStream out, int v){
+    out.write (v >>> 24);
+    out.write (v >>> 16);
+    out.write (v >>> 8);
+    out.write (v);
+  }
+
+  /**
+   * Wait until record number seq has been written, and forced if asked.
+   * Called with the lock held; the lock is released during I/O.
+   *
+   * Only one thread flushes at a time. It takes every record appended so
+   * far, so the threads that wait behind it are usually covered by its
+   * write and fsync, or else by the next one.
+   *
+   * @param seq   Record sequence number to wait for
+   * @param force True to wait for an fsync as well as a write
+   */
+  private void flush (long seq, boolean force) throws IOException {
+    while ((force ? durable : written) < seq){
+      if (failure != null)
+        throw failure;
+      if (flushing){
+        flushDone.awaitUninterruptibly ();
+        continue;
+      }
+
+      flushing = true;
+      Batch batch = pending;
+      pending = spare;
+      spare = batch;
+      long upTo = appended;
+      logSize += batch.size ();
+      lock.unlock ();
+      IOException error = null;
+      try {
+        ByteBuffer bytes = batch.contents ();
+        while (bytes.hasRemaining ())
+          log.write (bytes);
+        if (force)
+          log.force (false);
+      } catch (IOException e){
+        error = e;
+      } finally {
+        batch.reset ();
+        lock.lock ();
+        flushing = false;
+        flushDone.signalAll ();
+      }
+      if (error != null){
+        failure = error;
+        throw error;
+      }
+      written = upTo;
+      if (force)
+        durable = upTo;
+    }
+  }
+
+  /**
+   * Force every update made so far to disk.
+   *
+   * @throws IOException if the log cannot be written
+   */
+  public void sync () throws IOException {
+    lock.lock ();
+    try {
+      ensureWritable ();
+      flush (appended, true);
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Write the whole tree as a new snapshot and empty the log. The
+   * snapshot is written under a temporary name, forced, and renamed into
+   * place, so a crash leaves either the old snapshot or the new one.
+   *
+   * If this fails, the log is left as it was, or empty if the snapshot
+   * was already in place; either way the tree stays usable and the
+   * snapshot may be tried again.
+   *
+   * @throws IOException if the snapshot or log cannot be written
+   */
+  public void snapshot () throws IOException {
+    lock.lock ();
+    try {
+      ensureWritable ();
+      // Wait out any flush in progress; holding the lock keeps new ones
+      // from starting, so the log is ours until it is emptied
+      while (flushing)
+        flushDone.awaitUninterruptibly ();
+
+      // A temporary file left by a failure is overwritten by the next
+      // attempt, or deleted on the next open
+      Path tmp = dir.resolve (SNAPSHOT + ".tmp");
+      try (FileChannel out = FileChannel.open (tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)){
+        tree.writeTo (out, codec, AvlTree.Layout.SORTED);
+        out.force (true);
+      }
+      Files.move (tmp, dir.resolve (SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory ();
+
+      // Replaying the log over the new snapshot changes nothing, so the
+      // tree stays consistent if this fails. Truncating also moves the
+      // position back to the end of the file.
+      log.truncate (0);
+      // The snapshot covers every record, including those not yet written
+      pending.reset ();
+      logSize = 0;
+      durable = written = appended;
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Force the directory entry of a renamed file, where the platform
+   * allows opening a directory.
+   */
+  private void syncDirectory (){
+    try (FileChannel d = FileChannel.open (dir, StandardOpenOption.READ)){
+      d.force (true);
+    } catch (IOException e){
+      // Not supported on this platform
+    }
+  }
+
+  /**
+   * Set the log size above which the background task writes a snapshot.
+   *
+   * @param bytes Log size in bytes; Long.MAX_VALUE to snapshot only when
+   *              asked to
+   */
+  public void setSnapshotThreshold (long bytes){
+    snapshotThreshold = bytes;
+  }
+
+  /**
+   * Periodic task: flush batched records and snapshot a long log.
+   */
+  private void background (){
+    lock.lock ();
+    try {
+      if (closed || failure != null)
+        return;
+      if (durability == Durability.BATCH)
+        flush (appended, true);
+      if (logSize > snapshotThreshold)
+        snapshot ();
+    } catch (IOException e){
+      // Recorded in failure; reported by the next update
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  private void ensureWritable () throws IOException {
+    if (closed)
+      throw new IllegalStateException ("Tree has been closed");
+    if (failure != null)
+      throw failure;
+  }
+
+  /**
+   * Search for an element within the tree.
+   *
+   * @param x Element to find
+   * @return True if the element is found, false otherwise
+   */
+  public boolean contains (T x){
+    lock.lock ();
+    try {
+      return tree.contains (x);
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Find the smallest item in the tree.
+   * @return smallest item or null if empty.
+   */
+  public T findMin (){
+    lock.lock ();
+    try {
+      return tree.findMin ();
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Find the largest item in the tree.
+   * @return the largest item of null if empty.
+   */
+  public T findMax (){
+    lock.lock ();
+    try {
+      return tree.findMax ();
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * @return Number of elements in the tree
+   */
+  public int size (){
+    lock.lock ();
+    try {
+      return tree.size ();
+    } finally {
+      lock.unlock ();
+    }
+  }
+
+  /**
+   * Force outstanding updates to disk and release the log. Any further
+   * update fails with an IllegalStateException.
+   *
+   * @throws IOException if the log cannot be written
+   */
+  public void close () throws IOException {
+    lock.lock ();
+    try {
+      if (closed)
+        return;
+      closed = true;
+      flusher.shutdown ();
+      try {
+        if (failure == null)
+          flush (appended, true);
+      } finally {
+        try {
+          log.close ();
+        } finally {
+          unlock (realDir, lockFile);
+        }
+      }
+    } finally {
+      lock.unlock ();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package justinethier;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the elements of a tree in its binary form.
+ *
+ * @author Justin Ethier
+ */
+interface ElementCodec<T> {
+  /**
+   * Write one element.
+   *
+   * @param x   Element to write
+   * @param out Destination
+   * @throws IOException if the destination fails
+   */
+  void write (T x, DataOutput out) throws IOException;
+
+  /**
+   * Read one element written by {@link #write}.
+   *
+   * @param in Source
+   * @return The element
+   * @throws IOException if the source fails or ends early
+   */
+  T read (DataInput in) throws IOException;
+
+  /**
+   * Four-byte big-endian integers
+   */
+  ElementCodec<Integer> INTEGER = new ElementCodec<Integer> (){
+    public void write (Integer x, DataOutput out) throws IOException {
+      out.writeInt (x);
+    }
+
+    public Integer read (DataInput in) throws IOException {
+      return in.readInt ();
+    }
+  };
+
+  /**
+   * Eight-byte big-endian longs
+   */
+  ElementCodec<Long> LONG = new ElementCodec<Long> (){
+    public void write (Long x, DataOutput out) throws IOException {
+      out.writeLong (x);
+    }
+
+    public Long read (DataInput in) throws IOException {
+      return in.readLong ();
+    }
+  };
+
+  /**
+   * Strings as a byte count followed by their UTF-8 encoding
+   */
+  ElementCodec<String> STRING = new ElementCodec<String> (){
+    public void write (String x, DataOutput out) throws IOException {
+      BYTES.write (x.getBytes (StandardCharsets.UTF_8), out);
+    }
+
+    public String read (DataInput in) throws IOException {
+      return new String (BYTES.read (in), StandardCharsets.UTF_8);
+    }
+  };
+
+  /**
+   * Byte arrays as a length followed by the bytes.
+   *
+   * The length is not trusted to size the array up front: the bytes are
+   * read in chunks that grow with what has already arrived, so a corrupt
+   * length ends the stream with an EOFException instead of exhausting
+   * the heap.
+   */
+  ElementCodec<byte[]> BYTES = new ElementCodec<byte[]> (){
+    /**
+     * Most bytes allocated before any of them have been read
+     */
+    private static final int CHUNK = 1 << 16;
+
+    public void write (byte[] x, DataOutput out) throws IOException {
+      out.writeInt (x.length);
+      out.write (x);
+    }
+
+    public byte[] read (DataInput in) throws IOException {
+      int n = in.readInt ();
+      if (n < 0)
+        throw new StreamCorruptedException ("Negative byte count " + n);
+      byte[] x = new byte[Math.min (n, CHUNK)];
+      in.readFully (x);
+      while (x.length < n){
+        // Doubling keeps the copying linear in the bytes actually read
+        int read = x.length;
+        x = Arrays.copyOf (x, read + Math.min (n - read, read));
+        in.readFully (x, read, x.length - read);
+      }
+      return x;
+    }
+  };
+}
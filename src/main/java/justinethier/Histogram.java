@@ -0,0 +1,116 @@
+package justinethier;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative long values with HDR-style
+ * log-linear buckets.
+ *
+ * Values below 16 get a bucket each; above that, every power of two is
+ * split into 8 equal buckets, so any recorded value is reported to
+ * within 12.5%. Buckets are striped LongAdder counters, so concurrent
+ * recording does not contend on a single cache line.
+ *
+ * @author Justin Ethier
+ */
+class Histogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+  private static final int BUCKETS = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+  private final LongAdder total = new LongAdder ();
+  private final LongAccumulator max = new LongAccumulator (Math::max, 0);
+
+  public Histogram (){
+    for (int i = 0; i < BUCKETS; i++)
+      counts[i] = new LongAdder ();
+  }
+
+  /**
+   * Determine the bucket holding a value.
+   *
+   * @param value Non-negative value
+   * @return Bucket index
+   */
+  static int bucket (long value){
+    if (value < LINEAR_LIMIT)
+      return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros (value);
+    int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + mantissa;
+  }
+
+  /**
+   * Determine the largest value that falls in a bucket.
+   *
+   * @param bucket Bucket index
+   * @return Upper bound (inclusive) of the bucket
+   */
+  static long highestValue (int bucket){
+    if (bucket < LINEAR_LIMIT)
+      return bucket;
+    int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+    long mantissa = SUB_BUCKETS + (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+    return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Record a value. Negative values are recorded as zero.
+   *
+   * @param value Value to record
+   */
+  public void record (long value){
+    value = Math.max (value, 0);
+    counts[bucket (value)].increment ();
+    total.increment ();
+    max.accumulate (value);
+  }
+
+  /**
+   * @return Number of values recorded
+   */
+  public long getCount (){
+    return total.sum ();
+  }
+
+  /**
+   * @return Largest value recorded, or 0 if there is none
+   */
+  public long getMax (){
+    return max.get ();
+  }
+
+  /**
+   * Estimate a percentile of the recorded values.
+   *
+   * @param percentile Percentile, from 0 to 100
+   * @return Upper bound of the bucket holding the percentile, capped at
+   *         the largest value recorded; 0 if nothing was recorded
+   */
+  public long getValueAtPercentile (double percentile){
+    long count = getCount ();
+    if (count == 0)
+      return 0;
+    long rank = Math.max (1, (long) Math.ceil (count * Math.min (percentile, 100) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++){
+      seen += counts[i].sum ();
+      if (seen >= rank)
+        return Math.min (highestValue (i), getMax ());
+    }
+    return getMax ();
+  }
+
+  /**
+   * Discard all recorded values.
+   */
+  public void reset (){
+    for (LongAdder c : counts)
+      c.reset ();
+    total.reset ();
+    max.reset ();
+  }
+}
@@ -0,0 +1,350 @@
+package justinethier;
+
+import java.util.NoSuchElementException;
+
+/**
+ * AVL Tree specialized for primitive <code>int</code> keys.
+ *
+ * Provides the same insert/remove/contains/findMin/findMax surface as
+ * {@link AvlTree}, but keys are stored unboxed in each node and are
+ * ordered using primitive comparisons instead of <code>compareTo</code>.
+ *
+ * @author Justin Ethier
+ */
+class IntAvlTree {
+  /**
+   * IntAvlNode is a container class that is used to store each key
+   * (node) of the tree.
+   */
+  protected static class IntAvlNode {
+
+    /**
+     * Node key
+     */
+    protected int key;
+
+    /**
+     * Left child
+     */
+    protected IntAvlNode left;
+
+    /**
+     * Right child
+     */
+    protected IntAvlNode right;
+
+    /**
+     * Height of node
+     */
+    protected int height;
+
+    /**
+     * Constructor; creates a node without any children
+     *
+     * @param theKey  The key contained in this node
+     */
+    public IntAvlNode (int theKey){
+      key = theKey;
+    }
+  }
+
+  public IntAvlNode root;
+
+  /**
+   * Number of keys in the tree
+   */
+  private int size;
+
+  /**
+   * Avl Tree Constructor.
+   *
+   * Creates an empty tree
+   */
+  public IntAvlTree (){
+    root = null;
+    size = 0;
+  }
+
+  /**
+   * Determine the height of the given node.
+   *
+   * @param t Node
+   * @return Height of the given node.
+   */
+  private static int height (IntAvlNode t){
+    return t == null ? -1 : t.height;
+  }
+
+  /**
+   * Insert a key into the tree.
+   *
+   * @param x Key to insert into the tree
+   * @return True - Success, the key was added.
+   *         False - Error, the key was a duplicate.
+   */
+  public boolean insert (int x){
+    int before = size;
+    root = insert (x, root);
+    return size != before;
+  }
+
+  /**
+   * Internal method to perform an actual insertion.
+   *
+   * @param x Key to add
+   * @param t Root of the tree
+   * @return New root of the tree
+   */
+  private IntAvlNode insert (int x, IntAvlNode t){
+    if (t == null){
+      size++;
+      return new IntAvlNode (x);
+    }
+    if (x < t.key)
+      t.left = insert (x, t.left);
+    else if (x > t.key)
+      t.right = insert (x, t.right);
+    else
+      return t; // Duplicate; nothing to do
+
+    return balance (t);
+  }
+
+  /**
+   * Remove from the tree. Nothing is done if x is not found.
+   *
+   * @param x the key to remove.
+   * @return True if the key was found and removed
+   */
+  public boolean remove (int x){
+    int before = size;
+    root = remove (x, root);
+    return size != before;
+  }
+
+  /**
+   * Internal method to remove a key from a subtree.
+   *
+   * @param x Key to remove
+   * @param t Root of the subtree
+   * @return New root of the subtree
+   */
+  private IntAvlNode remove (int x, IntAvlNode t){
+    if (t == null)
+      return null;
+
+    if (x < t.key)
+      t.left = remove (x, t.left);
+    else if (x > t.key)
+      t.right = remove (x, t.right);
+    else if (t.left == null || t.right == null){
+      size--;
+      return t.left == null ? t.right : t.left;
+    }
+    else {
+      t.key = findMin (t.right).key;
+      t.right = remove (t.key, t.right);
+    }
+
+    return balance (t);
+  }
+
+  /**
+   * Search for a key within the tree.
+   *
+   * @param x Key to find
+   * @return True if the key is found, false otherwise
+   */
+  public boolean contains (int x){
+    IntAvlNode t = root;
+    while (t != null){
+      if (x < t.key)
+        t = t.left;
+      else if (x > t.key)
+        t = t.right;
+      else
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Find the smallest key in the tree.
+   *
+   * @return smallest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public int findMin (){
+    if (isEmpty ()) throw new NoSuchElementException ();
+    return findMin (root).key;
+  }
+
+  /**
+   * Find the largest key in the tree.
+   *
+   * @return largest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public int findMax (){
+    if (isEmpty ()) throw new NoSuchElementException ();
+    IntAvlNode t = root;
+    while (t.right != null)
+      t = t.right;
+    return t.key;
+  }
+
+  /**
+   * Find the largest key less than or equal to x, without allocating.
+   *
+   * @param x            Key to search from; it need not be present
+   * @param defaultValue Value to return if there is no such key
+   * @return The key, or defaultValue
+   */
+  public int floorOrDefault (int x, int defaultValue){
+    IntAvlNode t = root;
+    while (t != null){
+      if (x < t.key)
+        t = t.left;
+      else if (x > t.key){
+        defaultValue = t.key;
+        t = t.right;
+      }
+      else
+        return x;
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Find the largest key strictly less than x, without allocating.
+   *
+   * @param x            Key to search from; it need not be present
+   * @param defaultValue Value to return if there is no such key
+   * @return The key, or defaultValue
+   */
+  public int lowerOrDefault (int x, int defaultValue){
+    IntAvlNode t = root;
+    while (t != null){
+      if (x > t.key){
+        defaultValue = t.key;
+        t = t.right;
+      }
+      else
+        t = t.left;
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Find the smallest key greater than or equal to x, without allocating.
+   *
+   * @param x            Key to search from; it need not be present
+   * @param defaultValue Value to return if there is no such key
+   * @return The key, or defaultValue
+   */
+  public int ceilingOrDefault (int x, int defaultValue){
+    IntAvlNode t = root;
+    while (t != null){
+      if (x > t.key)
+        t = t.right;
+      else if (x < t.key){
+        defaultValue = t.key;
+        t = t.left;
+      }
+      else
+        return x;
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Find the smallest key strictly greater than x, without allocating.
+   *
+   * @param x            Key to search from; it need not be present
+   * @param defaultValue Value to return if there is no such key
+   * @return The key, or defaultValue
+   */
+  public int higherOrDefault (int x, int defaultValue){
+    IntAvlNode t = root;
+    while (t != null){
+      if (x < t.key){
+        defaultValue = t.key;
+        t = t.left;
+      }
+      else
+        t = t.right;
+    }
+    return defaultValue;
+  }
+
+  private static IntAvlNode findMin (IntAvlNode t){
+    while (t.left != null)
+      t = t.left;
+    return t;
+  }
+
+  /**
+   * @return Number of keys in the tree
+   */
+  public int size (){
+    return size;
+  }
+
+  /**
+   * Deletes all nodes from the tree.
+   */
+  public void makeEmpty (){
+    root = null;
+    size = 0;
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return (root == null);
+  }
+
+  /**
+   * Restore the AVL property at the given node after one of its
+   * subtrees has changed height by at most one.
+   *
+   * @param t Node to rebalance
+   * @return New root of the subtree
+   */
+  private static IntAvlNode balance (IntAvlNode t){
+    int diff = height (t.left) - height (t.right);
+    if (diff > 1){
+      if (height (t.left.left) < height (t.left.right))
+        t.left = rotateWithRight (t.left);
+      return rotateWithLeftChild (t);
+    }
+    if (diff < -1){
+      if (height (t.right.right) < height (t.right.left))
+        t.right = rotateWithLeftChild (t.right);
+      return rotateWithRight (t);
+    }
+    t.height = Math.max (height (t.left), height (t.right)) + 1;
+    return t;
+  }
+
+  private static IntAvlNode rotateWithLeftChild (IntAvlNode father){
+    IntAvlNode lChild = father.left;
+    father.left = lChild.right;
+    lChild.right = father;
+    father.height = Math.max (height (father.left), height (father.right)) + 1;
+    lChild.height = Math.max (height (lChild.left), father.height) + 1;
+    return lChild;
+  }
+
+  private static IntAvlNode rotateWithRight (IntAvlNode father){
+    IntAvlNode rChild = father.right;
+    father.right = rChild.left;
+    rChild.left = father;
+    father.height = Math.max (height (father.left), height (father.right)) + 1;
+    rChild.height = Math.max (height (rChild.right), father.height) + 1;
+    return rChild;
+  }
+}
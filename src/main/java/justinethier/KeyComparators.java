@@ -0,0 +1,60 @@
+package justinethier;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ToLongFunction;
+
+/**
+ * Comparators for common key types, for use with the comparator
+ * constructors of AvlTree, AvlMultiset and AvlMap.
+ *
+ * @author Justin Ethier
+ */
+final class KeyComparators {
+  private KeyComparators (){}
+
+  /**
+   * Orders boxed longs by their primitive values.
+   */
+  static final Comparator<Long> LONG = new Comparator<Long> (){
+    public int compare (Long a, Long b){
+      return Long.compare (a.longValue (), b.longValue ());
+    }
+  };
+
+  /**
+   * Orders strings as String.compareTo does, but answers at once when
+   * both arguments are the same instance, as they are whenever a lookup
+   * uses a key taken from the tree.
+   */
+  static final Comparator<String> STRING = new Comparator<String> (){
+    public int compare (String a, String b){
+      return a == b ? 0 : a.compareTo (b);
+    }
+  };
+
+  /**
+   * Orders byte arrays lexicographically, treating bytes as unsigned, so
+   * that the order matches that of the encoded keys in memcmp-style
+   * stores. Arrays.compareUnsigned compares many bytes at a time.
+   */
+  static final Comparator<byte[]> BYTES = new Comparator<byte[]> (){
+    public int compare (byte[] a, byte[] b){
+      return Arrays.compareUnsigned (a, b);
+    }
+  };
+
+  /**
+   * Order elements by a long key extracted from each one.
+   *
+   * @param key Extracts the key
+   * @return Comparator on the extracted keys
+   */
+  static <T> Comparator<T> comparingLong (final ToLongFunction<? super T> key){
+    return new Comparator<T> (){
+      public int compare (T a, T b){
+        return Long.compare (key.applyAsLong (a), key.applyAsLong (b));
+      }
+    };
+  }
+}
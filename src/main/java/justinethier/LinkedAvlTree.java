@@ -0,0 +1,272 @@
+package justinethier;
+
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * AVL Tree whose nodes also link to their parents, so a cursor can step
+ * to the next or previous element without descending from the root.
+ *
+ * Stepping climbs or descends at most the tree's height, but a walk
+ * across k neighbours touches each link no more than twice, so
+ * successor and predecessor take O(1) amortized time. The parent links
+ * cost one extra reference per node and are kept up to date through
+ * insert, remove, the rotations, split, join and the join-based set
+ * operations.
+ *
+ * @author Justin Ethier
+ */
+class LinkedAvlTree<T> extends AvlTree<T> {
+  /**
+   * Tree node with a link to its parent
+   *
+   * @author Justin Ethier
+   */
+  static final class LinkedNode<T> extends AvlNode<T> {
+    /**
+     * Parent node, or null for the root
+     */
+    LinkedNode<T> parent;
+
+    LinkedNode (T theElement){
+      super (theElement);
+    }
+  }
+
+  /**
+   * Number of changes made to the tree, so that cursors can detect
+   * being left on a node that is no longer linked
+   */
+  private int modCount;
+
+  /**
+   * Creates an empty tree ordered by the elements' natural ordering
+   */
+  public LinkedAvlTree (){
+    super ();
+  }
+
+  /**
+   * Creates an empty tree ordered by the given comparator
+   *
+   * @param comparator Element ordering, or null for the natural ordering
+   */
+  public LinkedAvlTree (Comparator<? super T> comparator){
+    super (comparator);
+  }
+
+  @Override
+  protected AvlNode<T> newNode (T x){
+    return new LinkedNode<T> (x);
+  }
+
+  @Override
+  protected AvlTree<T> newTree (){
+    return new LinkedAvlTree<T> (comparator ());
+  }
+
+  @Override
+  protected void setParent (AvlNode<T> child, AvlNode<T> parent){
+    // Intersection and difference also reshape the other tree's nodes
+    if (child instanceof LinkedNode)
+      ((LinkedNode<T>) child).parent = (LinkedNode<T>) parent;
+  }
+
+  @Override
+  protected AvlNode<T> insertNode (T x){
+    int before = size ();
+    AvlNode<T> t = super.insertNode (x);
+    if (size () != before)
+      modCount++;
+    return t;
+  }
+
+  @Override
+  protected AvlNode<T> removeNode (T x){
+    AvlNode<T> t = super.removeNode (x);
+    if (t != null)
+      modCount++;
+    return t;
+  }
+
+  /**
+   * Union and join make the other tree's nodes part of this one. If it
+   * keeps no parent links, its nodes are first copied, in O(m), into
+   * linked nodes of the same shape; that is within the cost of a union,
+   * though not of a join.
+   */
+  @Override
+  protected AvlTree<T> adopt (AvlTree<T> other){
+    checkOperand (other);
+    if (other instanceof LinkedAvlTree)
+      return other;
+    LinkedAvlTree<T> linked = new LinkedAvlTree<T> (comparator ());
+    linked.root = copy (other.root, null);
+    other.makeEmpty ();
+    return linked;
+  }
+
+  /**
+   * Copy a subtree into linked nodes of the same shape.
+   *
+   * @param t      Root of the subtree
+   * @param parent Parent of the copy
+   * @return Root of the copy
+   */
+  private static <T> LinkedNode<T> copy (AvlNode<T> t, LinkedNode<T> parent){
+    if (t == null)
+      return null;
+    LinkedNode<T> c = new LinkedNode<T> (t.element);
+    c.parent = parent;
+    c.left = copy (t.left, c);
+    c.right = copy (t.right, c);
+    c.height = t.height;
+    c.size = t.size;
+    return c;
+  }
+
+  /**
+   * The new root's parent link may still point into the old shape, and
+   * any cursor is left on a node that may have moved.
+   */
+  @Override
+  protected void rootReplaced (){
+    if (root != null)
+      ((LinkedNode<T>) root).parent = null;
+    modCount++;
+  }
+
+  @Override
+  public void makeEmpty (){
+    super.makeEmpty ();
+    modCount++;
+  }
+
+  /**
+   * @return Cursor on the smallest element; not valid if the tree is empty
+   */
+  public Cursor first (){
+    AvlNode<T> t = root;
+    if (t != null)
+      while (t.left != null)
+        t = t.left;
+    return new Cursor ((LinkedNode<T>) t);
+  }
+
+  /**
+   * @return Cursor on the largest element; not valid if the tree is empty
+   */
+  public Cursor last (){
+    AvlNode<T> t = root;
+    if (t != null)
+      while (t.right != null)
+        t = t.right;
+    return new Cursor ((LinkedNode<T>) t);
+  }
+
+  /**
+   * Position a cursor with a single descent from the root.
+   *
+   * @param x Element to search from
+   * @return Cursor on the smallest element greater than or equal to x;
+   *         not valid if there is none
+   */
+  public Cursor cursor (T x){
+    return new Cursor ((LinkedNode<T>) higherNode (x, true));
+  }
+
+  /**
+   * Position in the tree's in-order sequence.
+   *
+   * A cursor stays usable only while the tree is unchanged; stepping or
+   * reading it after an insert or remove throws
+   * ConcurrentModificationException, as its node may no longer be
+   * linked where it was.
+   */
+  final class Cursor {
+    private LinkedNode<T> node;
+    private final int expectedModCount = modCount;
+
+    private Cursor (LinkedNode<T> node){
+      this.node = node;
+    }
+
+    /**
+     * @return True if the cursor is on an element, false if it has
+     *         stepped off either end of the tree
+     */
+    public boolean isValid (){
+      checkForModification ();
+      return node != null;
+    }
+
+    /**
+     * @return Element under the cursor
+     * @throws NoSuchElementException if the cursor is not valid
+     */
+    public T element (){
+      checkForModification ();
+      if (node == null)
+        throw new NoSuchElementException ();
+      return node.element;
+    }
+
+    /**
+     * Step to the next larger element.
+     *
+     * @return True if the cursor is still valid
+     */
+    public boolean successor (){
+      checkForModification ();
+      LinkedNode<T> t = node;
+      if (t == null)
+        return false;
+      if (t.right != null){
+        t = (LinkedNode<T>) t.right;
+        while (t.left != null)
+          t = (LinkedNode<T>) t.left;
+        node = t;
+        return true;
+      }
+      LinkedNode<T> p = t.parent;
+      while (p != null && t == p.right){
+        t = p;
+        p = p.parent;
+      }
+      node = p;
+      return p != null;
+    }
+
+    /**
+     * Step to the next smaller element.
+     *
+     * @return True if the cursor is still valid
+     */
+    public boolean predecessor (){
+      checkForModification ();
+      LinkedNode<T> t = node;
+      if (t == null)
+        return false;
+      if (t.left != null){
+        t = (LinkedNode<T>) t.left;
+        while (t.right != null)
+          t = (LinkedNode<T>) t.right;
+        node = t;
+        return true;
+      }
+      LinkedNode<T> p = t.parent;
+      while (p != null && t == p.left){
+        t = p;
+        p = p.parent;
+      }
+      node = p;
+      return p != null;
+    }
+
+    private void checkForModification (){
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException ();
+    }
+  }
+}
@@ -0,0 +1,331 @@
+package justinethier;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * Read-only AVL Tree of <code>long</code> keys, queried in place in a
+ * memory-mapped file.
+ *
+ * {@link #write} lays a tree out as fixed-width records (key, left child,
+ * right child) numbered in key order, so a record's number is also its
+ * rank. {@link #open} maps the file without reading it, and every query
+ * descends the child links directly in the mapping. Opening is therefore
+ * near-instant, and processes that map the same file share its pages in
+ * the page cache.
+ *
+ * Only the header is checked when the file is opened. Each child link is
+ * checked as a query follows it: records are in key order, so a link must
+ * lead into the range of records still left to search, and a corrupt one
+ * fails the query with an UncheckedIOException wrapping a
+ * StreamCorruptedException rather than looping or reading out of bounds.
+ *
+ * @author Justin Ethier
+ */
+class MappedAvlTree implements Closeable {
+  /**
+   * Record number used to represent a missing child
+   */
+  private static final int NIL = -1;
+
+  // Header layout
+  private static final int MAGIC = 0x41564C4D; // "AVLM"
+  private static final int VERSION = 1;
+  private static final int COUNT = 8;
+  private static final int ROOT = 12;
+  private static final int HEADER_SIZE = 16;
+
+  // Record layout
+  private static final int KEY = 0;
+  private static final int LEFT = 8;
+  private static final int RIGHT = 12;
+  private static final int RECORD_SIZE = 16;
+
+  private ByteBuffer buffer;
+  private final int size;
+  private final int root;
+
+  private MappedAvlTree (ByteBuffer buffer) throws IOException {
+    if (buffer.capacity () < HEADER_SIZE || buffer.getInt (0) != MAGIC)
+      throw new StreamCorruptedException ("Not a mapped AVL tree");
+    if (buffer.getInt (4) != VERSION)
+      throw new StreamCorruptedException ("Unsupported mapped AVL tree version " + buffer.getInt (4));
+    size = buffer.getInt (COUNT);
+    root = buffer.getInt (ROOT);
+    if (size < 0 || buffer.capacity () != HEADER_SIZE + (long) size * RECORD_SIZE
+        || root < NIL || root >= size || (root == NIL) != (size == 0))
+      throw new StreamCorruptedException ("Bad mapped AVL tree header");
+    this.buffer = buffer;
+  }
+
+  /**
+   * Write a tree of long keys in the mapped layout. The file is written
+   * under a temporary name and then renamed, so a reader never maps a
+   * partly written file.
+   *
+   * The reader searches the records by comparing keys as signed longs,
+   * so the tree must be in that order.
+   *
+   * @param tree Tree to write; ordered naturally or by KeyComparators.LONG
+   * @param file Destination; replaced if it exists
+   * @throws IOException if the file cannot be written
+   * @throws IllegalArgumentException if the tree has another ordering
+   */
+  public static void write (AvlTree<Long> tree, Path file) throws IOException {
+    if (!tree.isDistinct ())
+      throw new UnsupportedOperationException ("Only trees of distinct keys can be written");
+    Comparator<? super Long> order = tree.comparator ();
+    if (order != null && order != KeyComparators.LONG && order != Comparator.naturalOrder ())
+      throw new IllegalArgumentException ("Only trees in natural key order can be written");
+    if (HEADER_SIZE + (long) tree.size () * RECORD_SIZE > Integer.MAX_VALUE)
+      throw new IllegalArgumentException ("Tree is too large to map: " + tree.size () + " keys");
+
+    Path tmp = file.resolveSibling (file.getFileName () + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream (tmp), 1 << 16))){
+        AvlTree.AvlNode<Long> t = tree.root;
+        out.writeInt (MAGIC);
+        out.writeInt (VERSION);
+        out.writeInt (tree.size ());
+        out.writeInt (t == null ? NIL : size (t.left));
+        write (t, 0, out);
+      }
+      Files.move (tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e){
+      try {
+        Files.deleteIfExists (tmp);
+      } catch (IOException suppressed){
+        e.addSuppressed (suppressed);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Internal method to write a subtree's records in key order.
+   *
+   * @param t    Root of the subtree
+   * @param base Record number of the subtree's smallest key
+   * @param out  Destination
+   */
+  private static void write (AvlTree.AvlNode<Long> t, int base, DataOutputStream out) throws IOException {
+    while (t != null){
+      write (t.left, base, out);
+      int index = base + size (t.left);
+      out.writeLong (t.element);
+      out.writeInt (t.left == null ? NIL : base + size (t.left.left));
+      out.writeInt (t.right == null ? NIL : index + 1 + size (t.right.left));
+      base = index + 1;
+      t = t.right;
+    }
+  }
+
+  private static int size (AvlTree.AvlNode<Long> t){
+    return t == null ? 0 : t.size;
+  }
+
+  /**
+   * Map a tree file written by {@link #write}.
+   *
+   * @param file File to map
+   * @return The tree
+   * @throws IOException if the file cannot be mapped or is not a tree
+   */
+  public static MappedAvlTree open (Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open (file, StandardOpenOption.READ)){
+      if (ch.size () > Integer.MAX_VALUE)
+        throw new StreamCorruptedException ("Bad mapped AVL tree header");
+      return new MappedAvlTree (ch.map (FileChannel.MapMode.READ_ONLY, 0, ch.size ()));
+    }
+  }
+
+  private ByteBuffer buffer (){
+    if (buffer == null)
+      throw new IllegalStateException ("Tree has been closed");
+    return buffer;
+  }
+
+  private static int offset (int t){
+    return HEADER_SIZE + t * RECORD_SIZE;
+  }
+
+  /**
+   * Follow a child link, checking that it leads into the records still
+   * left to search. Those shrink at every step, so a descent ends within
+   * size() steps however the file is corrupted.
+   *
+   * @param b     Mapping
+   * @param t     Record holding the link
+   * @param field LEFT or RIGHT
+   * @param lo    Smallest record number the child may have
+   * @param hi    Largest record number the child may have
+   * @return Child record number, or NIL
+   * @throws UncheckedIOException wrapping a StreamCorruptedException if
+   *         the link is out of range
+   */
+  private static int child (ByteBuffer b, int t, int field, int lo, int hi){
+    int c = b.getInt (offset (t) + field);
+    if (c != NIL && (c < lo || c > hi))
+      throw new UncheckedIOException (new StreamCorruptedException ("Bad child link in mapped AVL tree record " + t));
+    return c;
+  }
+
+  /**
+   * Search for a key within the tree.
+   *
+   * @param x Key to find
+   * @return True if the key is found, false otherwise
+   */
+  public boolean contains (long x){
+    ByteBuffer b = buffer ();
+    int t = root, lo = 0, hi = size - 1;
+    while (t != NIL){
+      long k = b.getLong (offset (t) + KEY);
+      if (x < k){
+        hi = t - 1;
+        t = child (b, t, LEFT, lo, hi);
+      }
+      else if (x > k){
+        lo = t + 1;
+        t = child (b, t, RIGHT, lo, hi);
+      }
+      else
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Find the smallest key in the tree, in constant time.
+   *
+   * @return smallest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public long findMin (){
+    if (isEmpty ()) throw new NoSuchElementException ();
+    return select (0);
+  }
+
+  /**
+   * Find the largest key in the tree, in constant time.
+   *
+   * @return largest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public long findMax (){
+    if (isEmpty ()) throw new NoSuchElementException ();
+    return select (size - 1);
+  }
+
+  /**
+   * Find the key of the given rank, in constant time.
+   *
+   * @param k Rank of the key to find
+   * @return Key with exactly k smaller keys in the tree
+   * @throws IndexOutOfBoundsException if k is not in [0, size())
+   */
+  public long select (int k){
+    if (k < 0 || k >= size)
+      throw new IndexOutOfBoundsException ("Rank: " + k + ", Size: " + size);
+    return buffer ().getLong (offset (k) + KEY);
+  }
+
+  /**
+   * Determine the number of keys in the tree smaller than x. The key
+   * itself need not be present.
+   *
+   * @param x Key to rank
+   * @return Number of keys smaller than x
+   */
+  public int rank (long x){
+    ByteBuffer b = buffer ();
+    int t = root, rank = 0, hi = size - 1;
+    while (t != NIL){
+      long k = b.getLong (offset (t) + KEY);
+      if (x < k){
+        hi = t - 1;
+        t = child (b, t, LEFT, rank, hi);
+      }
+      else if (x > k){
+        // Record numbers are ranks, so everything up to t is smaller
+        rank = t + 1;
+        t = child (b, t, RIGHT, rank, hi);
+      }
+      else
+        return t;
+    }
+    return rank;
+  }
+
+  /**
+   * Count the keys in the closed range [lo, hi].
+   *
+   * @param lo Lower bound, inclusive
+   * @param hi Upper bound, inclusive
+   * @return Number of keys x with lo &lt;= x &lt;= hi
+   */
+  public int rangeCount (long lo, long hi){
+    if (lo > hi)
+      return 0;
+    return (hi == Long.MAX_VALUE ? size : rank (hi + 1)) - rank (lo);
+  }
+
+  /**
+   * Visit, in ascending order, each key in the closed range [lo, hi].
+   * After one descent to find lo, the keys are read sequentially.
+   *
+   * @param lo     Lower bound, inclusive
+   * @param hi     Upper bound, inclusive
+   * @param action Visitor to call on each key
+   */
+  public void forEachInRange (long lo, long hi, LongConsumer action){
+    ByteBuffer b = buffer ();
+    for (int t = rank (lo); t < size; t++){
+      long k = b.getLong (offset (t) + KEY);
+      if (k > hi)
+        return;
+      action.accept (k);
+    }
+  }
+
+  /**
+   * @return Number of keys in the tree
+   */
+  public int size (){
+    return size;
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return size == 0;
+  }
+
+  /**
+   * Stop using the mapping. Any further use of the tree, other than
+   * another <code>close()</code>, fails with an IllegalStateException.
+   *
+   * The mapping itself is released when it is garbage collected; it is
+   * not unmapped eagerly, since a reader still running on another thread
+   * would then crash the JVM.
+   */
+  public void close (){
+    buffer = null;
+  }
+}
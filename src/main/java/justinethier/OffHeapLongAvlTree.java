@@ -0,0 +1,395 @@
+package justinethier;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * AVL Tree of <code>long</code> keys whose nodes live outside the Java heap.
+ *
+ * Each node is a fixed-width record (key, left child, right child, height)
+ * stored in direct ByteBuffer chunks, and is addressed by an int handle,
+ * so the garbage collector never has to trace the tree. Released records
+ * are kept on a free list and reused by later insertions.
+ *
+ * The memory is released by {@link #close()}; the tree may not be used
+ * afterwards.
+ *
+ * @author Justin Ethier
+ */
+class OffHeapLongAvlTree implements Closeable {
+  /**
+   * Handle used to represent a missing child
+   */
+  private static final int NIL = -1;
+
+  // Record layout
+  private static final int KEY = 0;
+  private static final int LEFT = 8;
+  private static final int RIGHT = 12;
+  private static final int HEIGHT = 16;
+  private static final int RECORD_SIZE = 20;
+
+  /**
+   * Each chunk holds 2^CHUNK_SHIFT records
+   */
+  private static final int CHUNK_SHIFT = 16;
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  private ByteBuffer[] chunks;
+  private int root;
+  private int free;
+  private int used;
+  private int size;
+
+  /**
+   * Avl Tree Constructor.
+   *
+   * Creates an empty tree; off-heap memory is allocated on demand.
+   */
+  public OffHeapLongAvlTree (){
+    chunks = new ByteBuffer[0];
+    root = NIL;
+    free = NIL;
+  }
+
+  private ByteBuffer chunk (int t){
+    return chunks[t >>> CHUNK_SHIFT];
+  }
+
+  private static int offset (int t){
+    return (t & CHUNK_MASK) * RECORD_SIZE;
+  }
+
+  private long key (int t){
+    return chunk (t).getLong (offset (t) + KEY);
+  }
+
+  private int left (int t){
+    return chunk (t).getInt (offset (t) + LEFT);
+  }
+
+  private int right (int t){
+    return chunk (t).getInt (offset (t) + RIGHT);
+  }
+
+  private int height (int t){
+    return t == NIL ? -1 : chunk (t).getInt (offset (t) + HEIGHT);
+  }
+
+  private void setKey (int t, long key){
+    chunk (t).putLong (offset (t) + KEY, key);
+  }
+
+  private void setLeft (int t, int child){
+    chunk (t).putInt (offset (t) + LEFT, child);
+  }
+
+  private void setRight (int t, int child){
+    chunk (t).putInt (offset (t) + RIGHT, child);
+  }
+
+  private void setHeight (int t, int height){
+    chunk (t).putInt (offset (t) + HEIGHT, height);
+  }
+
+  private void ensureOpen (){
+    if (chunks == null)
+      throw new IllegalStateException ("Tree has been closed");
+  }
+
+  /**
+   * Allocate a leaf record, reusing a released one when available.
+   *
+   * @param x Key to store
+   * @return Handle of the new node
+   */
+  private int allocate (long x){
+    int t;
+    if (free != NIL){
+      t = free;
+      free = left (t);
+    }
+    else {
+      if (used == Integer.MAX_VALUE)
+        throw new IllegalStateException ("Tree is full");
+      t = used++;
+      if ((t >>> CHUNK_SHIFT) == chunks.length){
+        chunks = Arrays.copyOf (chunks, chunks.length + 1);
+        chunks[chunks.length - 1] = ByteBuffer
+          .allocateDirect (RECORD_SIZE << CHUNK_SHIFT)
+          .order (ByteOrder.nativeOrder ());
+      }
+    }
+    setKey (t, x);
+    setLeft (t, NIL);
+    setRight (t, NIL);
+    setHeight (t, 0);
+    size++;
+    return t;
+  }
+
+  private void release (int t){
+    setLeft (t, free);
+    free = t;
+    size--;
+  }
+
+  /**
+   * Insert a key into the tree.
+   *
+   * @param x Key to insert into the tree
+   * @return True - Success, the key was added.
+   *         False - Error, the key was a duplicate.
+   */
+  public boolean insert (long x){
+    ensureOpen ();
+    int before = size;
+    root = insert (x, root);
+    return size != before;
+  }
+
+  private int insert (long x, int t){
+    if (t == NIL)
+      return allocate (x);
+
+    long k = key (t);
+    if (x < k)
+      setLeft (t, insert (x, left (t)));
+    else if (x > k)
+      setRight (t, insert (x, right (t)));
+    else
+      return t; // Duplicate; nothing to do
+
+    return balance (t);
+  }
+
+  /**
+   * Remove from the tree. Nothing is done if x is not found.
+   *
+   * @param x the key to remove.
+   * @return True if the key was found and removed
+   */
+  public boolean remove (long x){
+    ensureOpen ();
+    int before = size;
+    root = remove (x, root);
+    return size != before;
+  }
+
+  private int remove (long x, int t){
+    if (t == NIL)
+      return NIL;
+
+    long k = key (t);
+    if (x < k)
+      setLeft (t, remove (x, left (t)));
+    else if (x > k)
+      setRight (t, remove (x, right (t)));
+    else if (left (t) == NIL || right (t) == NIL){
+      int child = left (t) == NIL ? right (t) : left (t);
+      release (t);
+      return child;
+    }
+    else {
+      long successor = key (findMin (right (t)));
+      setKey (t, successor);
+      setRight (t, remove (successor, right (t)));
+    }
+
+    return balance (t);
+  }
+
+  /**
+   * Search for a key within the tree.
+   *
+   * @param x Key to find
+   * @return True if the key is found, false otherwise
+   */
+  public boolean contains (long x){
+    ensureOpen ();
+    int t = root;
+    while (t != NIL){
+      long k = key (t);
+      if (x < k)
+        t = left (t);
+      else if (x > k)
+        t = right (t);
+      else
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Find the smallest key in the tree.
+   *
+   * @return smallest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public long findMin (){
+    ensureOpen ();
+    if (isEmpty ()) throw new NoSuchElementException ();
+    return key (findMin (root));
+  }
+
+  /**
+   * Find the largest key in the tree.
+   *
+   * @return largest key
+   * @throws NoSuchElementException if the tree is empty
+   */
+  public long findMax (){
+    ensureOpen ();
+    if (isEmpty ()) throw new NoSuchElementException ();
+    int t = root;
+    while (right (t) != NIL)
+      t = right (t);
+    return key (t);
+  }
+
+  private int findMin (int t){
+    while (left (t) != NIL)
+      t = left (t);
+    return t;
+  }
+
+  /**
+   * @return Number of keys in the tree
+   */
+  public int size (){
+    return size;
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return (root == NIL);
+  }
+
+  /**
+   * Deletes all nodes from the tree and releases its off-heap memory.
+   * The tree remains usable.
+   */
+  public void makeEmpty (){
+    ensureOpen ();
+    releaseChunks ();
+    chunks = new ByteBuffer[0];
+  }
+
+  /**
+   * Release the tree's off-heap memory. Any further use of the tree,
+   * other than another <code>close()</code>, fails with an
+   * IllegalStateException.
+   */
+  public void close (){
+    if (chunks != null){
+      releaseChunks ();
+      chunks = null;
+    }
+  }
+
+  private void releaseChunks (){
+    for (ByteBuffer chunk : chunks)
+      Cleaner.clean (chunk);
+    root = NIL;
+    free = NIL;
+    used = 0;
+    size = 0;
+  }
+
+  private int balance (int t){
+    int l = left (t), r = right (t);
+    int diff = height (l) - height (r);
+    if (diff > 1){
+      if (height (left (l)) < height (right (l)))
+        setLeft (t, rotateWithRight (l));
+      return rotateWithLeftChild (t);
+    }
+    if (diff < -1){
+      if (height (right (r)) < height (left (r)))
+        setRight (t, rotateWithLeftChild (r));
+      return rotateWithRight (t);
+    }
+    setHeight (t, Math.max (height (l), height (r)) + 1);
+    return t;
+  }
+
+  private int rotateWithLeftChild (int father){
+    int lChild = left (father);
+    setLeft (father, right (lChild));
+    setRight (lChild, father);
+    setHeight (father, Math.max (height (left (father)), height (right (father))) + 1);
+    setHeight (lChild, Math.max (height (left (lChild)), height (father)) + 1);
+    return lChild;
+  }
+
+  private int rotateWithRight (int father){
+    int rChild = right (father);
+    setRight (father, left (rChild));
+    setLeft (rChild, father);
+    setHeight (father, Math.max (height (left (father)), height (right (father))) + 1);
+    setHeight (rChild, Math.max (height (right (rChild)), height (father)) + 1);
+    return rChild;
+  }
+
+  /**
+   * Frees direct buffers eagerly instead of waiting for them to be
+   * garbage collected. Uses <code>Unsafe.invokeCleaner</code> on Java 9+
+   * and the buffer's own cleaner on Java 8; if neither is reachable the
+   * buffer is simply left for the collector.
+   */
+  private static final class Cleaner {
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+      Object unsafe = null;
+      Method invokeCleaner = null, cleaner = null, clean = null;
+      try {
+        Class<?> c = Class.forName ("sun.misc.Unsafe");
+        java.lang.reflect.Field f = c.getDeclaredField ("theUnsafe");
+        f.setAccessible (true);
+        unsafe = f.get (null);
+        invokeCleaner = c.getMethod ("invokeCleaner", ByteBuffer.class);
+      } catch (Exception e){
+        try {
+          ByteBuffer probe = ByteBuffer.allocateDirect (1);
+          cleaner = probe.getClass ().getMethod ("cleaner");
+          cleaner.setAccessible (true);
+          clean = cleaner.getReturnType ().getMethod ("clean");
+          clean.setAccessible (true);
+        } catch (Exception e2){
+          cleaner = null;
+          clean = null;
+        }
+      }
+      UNSAFE = unsafe;
+      INVOKE_CLEANER = invokeCleaner;
+      CLEANER = cleaner;
+      CLEAN = clean;
+    }
+
+    static void clean (ByteBuffer buffer){
+      try {
+        if (INVOKE_CLEANER != null)
+          INVOKE_CLEANER.invoke (UNSAFE, buffer);
+        else if (CLEANER != null){
+          Object c = CLEANER.invoke (buffer);
+          if (c != null)
+            CLEAN.invoke (c);
+        }
+      } catch (Exception e){
+        // Fall back to releasing the buffer when it is collected
+      }
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package justinethier;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Persistent (immutable) AVL Tree.
+ *
+ * Updates never modify a tree; <code>insert</code> and <code>remove</code>
+ * return a new version instead. The new version copies only the O(log n)
+ * nodes on the root-to-leaf path and shares every other subtree with the
+ * old one, so each version is an O(1) snapshot that stays valid, and can
+ * be read from any thread without locking, for as long as it is referenced.
+ *
+ * @author Justin Ethier
+ */
+final class PersistentAvlTree<T extends Comparable<? super T>> implements Iterable<T> {
+  /**
+   * Immutable tree node.
+   */
+  private static final class Node<T> {
+    final T element;
+    final Node<T> left;
+    final Node<T> right;
+    final int height;
+    final int size;
+
+    Node (T element, Node<T> left, Node<T> right){
+      this.element = element;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max (height (left), height (right)) + 1;
+      this.size = size (left) + size (right) + 1;
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static final PersistentAvlTree EMPTY = new PersistentAvlTree (null);
+
+  private final Node<T> root;
+
+  private PersistentAvlTree (Node<T> root){
+    this.root = root;
+  }
+
+  /**
+   * @return The empty tree
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Comparable<? super T>> PersistentAvlTree<T> empty (){
+    return (PersistentAvlTree<T>) EMPTY;
+  }
+
+  private static int height (Node<?> t){
+    return t == null ? -1 : t.height;
+  }
+
+  private static int size (Node<?> t){
+    return t == null ? 0 : t.size;
+  }
+
+  /**
+   * Insert an element.
+   *
+   * @param x Element to insert
+   * @return Tree containing x as well as this tree's elements, or this
+   *         tree itself if x is already present
+   */
+  public PersistentAvlTree<T> insert (T x){
+    Node<T> updated = insert (x, root);
+    return updated == root ? this : new PersistentAvlTree<T> (updated);
+  }
+
+  /**
+   * Remove an element.
+   *
+   * @param x Element to remove
+   * @return Tree containing this tree's elements except x, or this tree
+   *         itself if x is not present
+   */
+  public PersistentAvlTree<T> remove (T x){
+    Node<T> updated = remove (x, root);
+    if (updated == root)
+      return this;
+    return updated == null ? PersistentAvlTree.<T>empty () : new PersistentAvlTree<T> (updated);
+  }
+
+  /**
+   * Search for an element within the tree.
+   *
+   * @param x Element to find
+   * @return True if the element is found, false otherwise
+   */
+  public boolean contains (T x){
+    Node<T> t = root;
+    while (t != null){
+      int cmp = x.compareTo (t.element);
+      if (cmp == 0)
+        return true;
+      t = cmp < 0 ? t.left : t.right;
+    }
+    return false;
+  }
+
+  /**
+   * Find the smallest item in the tree.
+   * @return smallest item or null if empty.
+   */
+  public T findMin (){
+    Node<T> t = root;
+    if (t == null)
+      return null;
+    while (t.left != null)
+      t = t.left;
+    return t.element;
+  }
+
+  /**
+   * Find the largest item in the tree.
+   * @return the largest item of null if empty.
+   */
+  public T findMax (){
+    Node<T> t = root;
+    if (t == null)
+      return null;
+    while (t.right != null)
+      t = t.right;
+    return t.element;
+  }
+
+  /**
+   * @return Number of elements in the tree
+   */
+  public int size (){
+    return size (root);
+  }
+
+  /**
+   * Determine if the tree is empty.
+   *
+   * @return True if the tree is empty
+   */
+  public boolean isEmpty (){
+    return root == null;
+  }
+
+  /**
+   * Iterate over the elements in ascending order. Since the tree never
+   * changes, the iterator may be used for as long as needed.
+   *
+   * @return In-order iterator
+   */
+  public Iterator<T> iterator (){
+    return new Iterator<T> (){
+      @SuppressWarnings({"rawtypes", "unchecked"})
+      private final Node<T>[] stack = (Node<T>[]) new Node[height (root) + 1];
+      private int depth = pushLeft (root, 0);
+
+      private int pushLeft (Node<T> t, int depth){
+        for (; t != null; t = t.left)
+          stack[depth++] = t;
+        return depth;
+      }
+
+      public boolean hasNext (){
+        return depth > 0;
+      }
+
+      public T next (){
+        if (depth == 0)
+          throw new NoSuchElementException ();
+        Node<T> t = stack[--depth];
+        depth = pushLeft (t.right, depth);
+        return t.element;
+      }
+    };
+  }
+
+  /**
+   * Internal insert method; path-copying insertion into a subtree.
+   *
+   * @param x Element to add
+   * @param t Root of the subtree
+   * @return New root of the subtree, or t itself if x was a duplicate
+   */
+  private static <T extends Comparable<? super T>> Node<T> insert (T x, Node<T> t){
+    if (t == null)
+      return new Node<T> (x, null, null);
+
+    int cmp = x.compareTo (t.element);
+    if (cmp < 0){
+      Node<T> l = insert (x, t.left);
+      return l == t.left ? t : balance (t.element, l, t.right);
+    }
+    if (cmp > 0){
+      Node<T> r = insert (x, t.right);
+      return r == t.right ? t : balance (t.element, t.left, r);
+    }
+    return t;
+  }
+
+  /**
+   * Internal remove method; path-copying removal from a subtree.
+   *
+   * @param x Element to remove
+   * @param t Root of the subtree
+   * @return New root of the subtree, or t itself if x was not found
+   */
+  private static <T extends Comparable<? super T>> Node<T> remove (T x, Node<T> t){
+    if (t == null)
+      return null;
+
+    int cmp = x.compareTo (t.element);
+    if (cmp < 0){
+      Node<T> l = remove (x, t.left);
+      return l == t.left ? t : balance (t.element, l, t.right);
+    }
+    if (cmp > 0){
+      Node<T> r = remove (x, t.right);
+      return r == t.right ? t : balance (t.element, t.left, r);
+    }
+    if (t.left == null)
+      return t.right;
+    if (t.right == null)
+      return t.left;
+
+    Node<T> successor = t.right;
+    while (successor.left != null)
+      successor = successor.left;
+    return balance (successor.element, t.left, removeMin (t.right));
+  }
+
+  /**
+   * Path-copying removal of the smallest element of a non-empty subtree.
+   */
+  private static <T> Node<T> removeMin (Node<T> t){
+    if (t.left == null)
+      return t.right;
+    return balance (t.element, removeMin (t.left), t.right);
+  }
+
+  /**
+   * Build a node from an element and two subtrees whose heights differ
+   * by at most two, rotating (with fresh nodes) to restore the AVL
+   * property.
+   *
+   * @param e Element of the new node
+   * @param l Left subtree
+   * @param r Right subtree
+   * @return Root of the balanced subtree
+   */
+  private static <T> Node<T> balance (T e, Node<T> l, Node<T> r){
+    int hl = height (l), hr = height (r);
+    if (hl > hr + 1){
+      if (height (l.left) >= height (l.right))
+        return new Node<T> (l.element, l.left, new Node<T> (e, l.right, r));
+      Node<T> lr = l.right;
+      return new Node<T> (lr.element, new Node<T> (l.element, l.left, lr.left),
+                          new Node<T> (e, lr.right, r));
+    }
+    if (hr > hl + 1){
+      if (height (r.right) >= height (r.left))
+        return new Node<T> (r.element, new Node<T> (e, l, r.left), r.right);
+      Node<T> rl = r.left;
+      return new Node<T> (rl.element, new Node<T> (e, l, rl.left),
+                          new Node<T> (r.element, rl.right, r.right));
+    }
+    return new Node<T> (e, l, r);
+  }
+}
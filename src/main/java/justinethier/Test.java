@@ -145,11 +145,6 @@ public class Test {
     // Delete any old nodes from the tree
     t.makeEmpty();
     
-    // Clear the counts
-    t.countInsertions = 0;
-    t.countSingleRotations = 0;
-    t.countDoubleRotations = 0;
-    
     // Generate and insert 100 random numbers
     for (int i = 0; i < count; i++){
       // Prevent insertion of duplicates
@@ -167,20 +162,19 @@ public class Test {
   public static void main (String []args){
     AvlTree<Integer> t = new AvlTree<Integer>();
     int testCases = 10, i;
-    int insertionCount = 0;
-    int singleRotationCount = 0;
-    int doubleRotationCount = 0;
+    CountingMetrics metrics = new CountingMetrics();
     
+      t.setMetrics(metrics);
       Test.performInsertions(t);
-      insertionCount      += t.countInsertions;
-      singleRotationCount += t.countSingleRotations;
-      doubleRotationCount += t.countDoubleRotations;
     
-    System.out.println ("Total Insertions:       " + insertionCount);
-    System.out.println ("Total Single Rotations: " + singleRotationCount);
-    System.out.println ("Total Double Rotations: " + doubleRotationCount);
+    System.out.println ("Total Insertions:       " + metrics.getInsertions());
+    System.out.println ("Total Single Rotations: " + metrics.getSingleRotations());
+    System.out.println ("Total Double Rotations: " + metrics.getDoubleRotations());
+    System.out.println ("Search Path p50/p99:    " + metrics.getSearchPathLengths().getValueAtPercentile(50)
+                        + "/" + metrics.getSearchPathLengths().getValueAtPercentile(99));
     System.out.println ("Ordering: " + t.checkOrderingOfTree(t.root));
     System.out.println ("Balance: " + t.checkBalanceOfTree(t.root));
+    System.out.println ("Valid: " + t.isValid());
 
     t = new AvlTree<Integer>();
     for (i = 0; i < 100; i++){
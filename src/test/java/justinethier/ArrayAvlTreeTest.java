@@ -0,0 +1,48 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class ArrayAvlTreeTest {
+  @Test
+  public void testMatchesAvlTree() {
+    ArrayAvlTree<Integer> tree = new ArrayAvlTree<Integer>(4);
+    AvlTree<Integer> reference = new AvlTree<Integer>();
+    Random r = new Random(7);
+
+    for (int i = 0; i < 3000; i++) {
+      Integer x = r.nextInt(1000);
+      if (r.nextInt(3) == 0) {
+        boolean present = reference.contains(x);
+        reference.remove(x);
+        assertEquals(present, tree.remove(x));
+      } else {
+        assertEquals(reference.insert(x), tree.insert(x));
+      }
+    }
+    assertEquals(reference.serializeInfix(), tree.serializeInfix());
+    assertEquals(reference.findMin(), tree.findMin());
+    assertEquals(reference.findMax(), tree.findMax());
+  }
+
+  @Test
+  public void testSlotsAreReused() {
+    ArrayAvlTree<Integer> tree = new ArrayAvlTree<Integer>();
+    for (int i = 0; i < 10; i++)
+      tree.insert(i);
+    assertEquals("3 1 0 2 7 5 4 6 8 9 ", tree.serializePrefix());
+    for (int i = 0; i < 10; i += 2)
+      assertTrue(tree.remove(i));
+    for (int i = 10; i < 15; i++)
+      tree.insert(i);
+    assertEquals(10, tree.size());
+    assertEquals("1 3 5 7 9 10 11 12 13 14 ", tree.serializeInfix());
+    tree.makeEmpty();
+    assertTrue(tree.isEmpty());
+    assertNull(tree.findMin());
+  }
+}
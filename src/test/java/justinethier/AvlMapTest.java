@@ -0,0 +1,78 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+
+public class AvlMapTest {
+  @Test
+  public void testMatchesTreeMap() {
+    AvlMap<Integer, Integer> map = new AvlMap<Integer, Integer>();
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    Random r = new Random(21);
+
+    for (int i = 0; i < 50000; i++) {
+      Integer k = r.nextInt(1000), v = r.nextInt(10);
+      switch (r.nextInt(6)) {
+        case 0:
+          assertEquals(expected.put(k, v), map.put(k, v));
+          break;
+        case 1:
+          assertEquals(expected.putIfAbsent(k, v), map.putIfAbsent(k, v));
+          break;
+        case 2:
+          assertEquals(expected.remove(k), map.remove(k));
+          break;
+        case 3:
+          // Drop keys whose value would reach zero
+          assertEquals(expected.compute(k, (key, old) -> old == null ? v : (old + v) % 7 == 0 ? null : old + v),
+                       map.compute(k, (key, old) -> old == null ? v : (old + v) % 7 == 0 ? null : old + v));
+          break;
+        case 4:
+          assertEquals(expected.merge(k, v, (a, b) -> a + b > 15 ? null : a + b),
+                       map.merge(k, v, (a, b) -> a + b > 15 ? null : a + b));
+          break;
+        default:
+          assertEquals(expected.get(k), map.get(k));
+          assertEquals(expected.containsKey(k), map.containsKey(k));
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected.firstKey(), map.firstKey());
+    assertEquals(expected.lastKey(), map.lastKey());
+
+    final List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+    map.forEach((k, v) -> entries.add(new java.util.AbstractMap.SimpleEntry<Integer, Integer>(k, v)));
+    assertEquals(new ArrayList<Map.Entry<Integer, Integer>>(expected.entrySet()), entries);
+  }
+
+  @Test
+  public void testValueUpdatesDoNotRebalance() {
+    AvlMap<Integer, String> map = new AvlMap<Integer, String>();
+    for (int i = 0; i < 100; i++)
+      map.put(i, "a");
+
+    CountingMetrics metrics = new CountingMetrics();
+    map.setMetrics(metrics);
+    assertEquals("a", map.put(50, "b"));
+    assertEquals("ab", map.merge(50, "x", (a, b) -> "ab"));
+    assertEquals("c", map.compute(50, (k, v) -> "c"));
+    assertEquals("c", map.putIfAbsent(50, "d"));
+    assertEquals("c", map.getOrDefault(50, "z"));
+    assertEquals("z", map.getOrDefault(500, "z"));
+    assertNull(map.compute(500, (k, v) -> null));
+
+    assertEquals(100, map.size());
+    assertEquals(0, metrics.getInsertions());
+    assertEquals(0, metrics.getSingleRotations() + metrics.getDoubleRotations());
+    // Every call above is a single descent
+    assertEquals(7, metrics.getSearchPathLengths().getCount());
+  }
+}
@@ -0,0 +1,174 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class AvlMultisetTest {
+  @Test
+  public void testMatchesSortedList() {
+    AvlMultiset<Integer> set = new AvlMultiset<Integer>();
+    List<Integer> expected = new ArrayList<Integer>();
+    Random r = new Random(31);
+
+    for (int i = 0; i < 20000; i++) {
+      Integer x = r.nextInt(200);
+      if (r.nextInt(3) > 0) {
+        assertTrue(set.insert(x));
+        int at = Collections.binarySearch(expected, x);
+        expected.add(at < 0 ? -at - 1 : at, x);
+      }
+      else
+        assertEquals(expected.remove(x), set.remove(x));
+    }
+
+    assertEquals(expected.size(), set.size());
+    for (int x = 0; x < 200; x++)
+      assertEquals(Collections.frequency(expected, x), set.count(x));
+    for (int k = 0; k < expected.size(); k += 7)
+      assertEquals(expected.get(k), set.select(k));
+    for (int x = -1; x <= 200; x++) {
+      int below = 0;
+      while (below < expected.size() && expected.get(below) < x)
+        below++;
+      assertEquals(below, set.rank(x));
+    }
+
+    List<Integer> iterated = new ArrayList<Integer>();
+    for (Integer x : set)
+      iterated.add(x);
+    assertEquals(expected, iterated);
+    assertEquals(expected.size(), set.stream().count());
+    assertEquals(expected.stream().mapToLong(Integer::longValue).sum(),
+                 set.parallelStream().mapToLong(Integer::longValue).sum());
+
+    List<Integer> ranged = new ArrayList<Integer>();
+    set.forEachInRange(50, 60, ranged::add);
+    assertEquals(ranged.size(), set.rangeCount(50, 60));
+  }
+
+  @Test
+  public void testPercentilesOverDuplicates() {
+    AvlMultiset<Integer> set = new AvlMultiset<Integer>();
+    for (int i = 0; i < 900; i++)
+      set.insert(1);
+    for (int i = 0; i < 100; i++)
+      set.insert(1000);
+
+    assertEquals(Integer.valueOf(1), set.select(set.size() / 2));
+    assertEquals(Integer.valueOf(1), set.select(899));
+    assertEquals(Integer.valueOf(1000), set.select(900));
+    assertEquals(900, set.rank(1000));
+    assertEquals(100, set.count(1000));
+
+    for (int i = 0; i < 100; i++)
+      assertTrue(set.remove(1000));
+    assertFalse(set.remove(1000));
+    assertEquals(0, set.count(1000));
+    assertEquals(Integer.valueOf(1), set.findMax());
+  }
+
+  private static AvlMultiset<Integer> multiset(int... counts) {
+    AvlMultiset<Integer> set = new AvlMultiset<Integer>();
+    for (int i = 0; i < counts.length; i++)
+      for (int k = 0; k < counts[i]; k++)
+        set.insert(i);
+    return set;
+  }
+
+  private static void assertCounts(AvlMultiset<Integer> set, int... counts) {
+    assertTrue(set.isValid());
+    int total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      assertEquals(counts[i], set.count(i));
+      total += counts[i];
+    }
+    assertEquals(total, set.size());
+  }
+
+  @Test
+  public void testSetOperationsCombineCounts() {
+    AvlMultiset<Integer> a = multiset(3, 0, 2, 1), b = multiset(5, 1, 0, 4);
+    a.union(b);
+    assertCounts(a, 8, 1, 2, 5);
+
+    a = multiset(3, 0, 2, 1);
+    a.intersection(multiset(5, 1, 0, 4));
+    assertCounts(a, 3, 0, 0, 1);
+
+    a = multiset(3, 0, 2, 4);
+    a.difference(multiset(1, 1, 2, 5));
+    assertCounts(a, 2, 0, 0, 0);
+  }
+
+  @Test
+  public void testSetOperationsRejectSets() {
+    AvlMultiset<Integer> set = multiset(2, 1);
+    AvlTree<Integer> plain = new AvlTree<Integer>();
+    plain.insert(0);
+    plain.insert(5);
+
+    try {
+      set.union(plain);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      plain.union(set);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      plain.intersection(set);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      set.difference(plain);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new LinkedAvlTree<Integer>().union(set);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+
+    // Neither tree was changed
+    assertCounts(set, 2, 1);
+    assertTrue(plain.isValid());
+    assertEquals(2, plain.size());
+    assertTrue(plain.contains(5));
+  }
+
+  @Test
+  public void testSplitAndJoin() {
+    AvlMultiset<Integer> set = new AvlMultiset<Integer>();
+    for (int i = 0; i < 100; i++)
+      for (int k = 0; k <= i % 4; k++)
+        set.insert(i);
+
+    AvlTree.Split<Integer> parts = set.split(50);
+    assertTrue(parts.found);
+    assertTrue(parts.left instanceof AvlMultiset);
+    assertTrue(parts.left.isValid());
+    assertTrue(parts.right.isValid());
+    assertEquals(123, parts.left.size());
+    assertEquals(124, parts.right.size());
+    assertEquals(Integer.valueOf(49), parts.left.select(122));
+    assertEquals(4, ((AvlMultiset<Integer>) parts.right).count(99));
+
+    AvlTree<Integer> joined = AvlTree.join(parts.left, 50, parts.right);
+    assertTrue(joined instanceof AvlMultiset);
+    assertTrue(joined.isValid());
+    assertEquals(248, joined.size());
+    assertEquals(1, ((AvlMultiset<Integer>) joined).count(50));
+    assertEquals(Integer.valueOf(50), joined.select(123));
+  }
+}
@@ -0,0 +1,89 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+
+public class AvlTreeEventsTest {
+  private static List<RecordedEvent> record(Runnable work) throws Exception {
+    File file = File.createTempFile("avltree", ".jfr");
+    try {
+      Recording recording = new Recording();
+      recording.enable("justinethier.AvlTree.Rotation");
+      recording.enable("justinethier.AvlTree.DeepSearch");
+      recording.enable("justinethier.AvlTree.BulkOperation");
+      recording.start();
+      work.run();
+      recording.stop();
+      recording.dump(file.toPath());
+      recording.close();
+      return RecordingFile.readAllEvents(file.toPath());
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static int count(List<RecordedEvent> events, String name) {
+    int n = 0;
+    for (RecordedEvent e : events)
+      if (e.getEventType().getName().equals(name))
+        n++;
+    return n;
+  }
+
+  @Test
+  public void testRotationAndDeepSearchEvents() throws Exception {
+    final AvlTree<Integer> tree = new AvlTree<Integer>();
+    tree.setDeepSearchThreshold(2);
+    List<RecordedEvent> events = record(new Runnable() {
+      public void run() {
+        for (int i = 0; i < 7; i++)
+          tree.insert(i);
+        tree.contains(6);
+        tree.contains(3);
+      }
+    });
+
+    assertEquals(4, count(events, "justinethier.AvlTree.Rotation"));
+    // Inserting 4..6 and finding 6 each visit three nodes; finding the root visits one
+    assertEquals(4, count(events, "justinethier.AvlTree.DeepSearch"));
+    for (RecordedEvent e : events) {
+      assertEquals(System.identityHashCode(tree), e.getInt("treeId"));
+      if (e.getEventType().getName().equals("justinethier.AvlTree.DeepSearch")) {
+        assertEquals(3, e.getInt("depth"));
+        assertEquals(2, e.getInt("threshold"));
+      }
+    }
+  }
+
+  @Test
+  public void testBulkOperationEvents() throws Exception {
+    List<RecordedEvent> events = record(new Runnable() {
+      public void run() {
+        Integer[] keys = new Integer[100];
+        for (int i = 0; i < keys.length; i++)
+          keys[i] = i;
+        AvlTree<Integer> tree = AvlTree.fromSorted(keys);
+        AvlTree.Split<Integer> parts = tree.split(50);
+        parts.left.union(parts.right);
+      }
+    });
+
+    assertEquals(3, count(events, "justinethier.AvlTree.BulkOperation"));
+    RecordedEvent last = null;
+    for (RecordedEvent e : events)
+      if (e.getEventType().getName().equals("justinethier.AvlTree.BulkOperation"))
+        last = e;
+    assertEquals("union", last.getString("operation"));
+    assertEquals(99, last.getLong("inputSize"));
+    assertEquals(99, last.getInt("size"));
+  }
+}
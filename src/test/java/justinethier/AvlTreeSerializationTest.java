@@ -0,0 +1,218 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class AvlTreeSerializationTest {
+  private static AvlTree<Integer> randomTree(int n) {
+    AvlTree<Integer> tree = new AvlTree<Integer>();
+    Random r = new Random(n);
+    for (int i = 0; i < n; i++)
+      tree.insert(r.nextInt(n * 4 + 1));
+    return tree;
+  }
+
+  private static byte[] write(AvlTree<Integer> tree, AvlTree.Layout layout) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeTo(out, ElementCodec.INTEGER, layout);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (int n : new int[] {0, 1, 2, 100, 5000}) {
+      AvlTree<Integer> tree = randomTree(n);
+
+      byte[] prefix = write(tree, AvlTree.Layout.PREFIX);
+      AvlTree<Integer> copy = AvlTree.readFrom(new ByteArrayInputStream(prefix), ElementCodec.INTEGER);
+      // Prefix layout keeps the exact shape
+      assertEquals(tree.serializePrefix(), copy.serializePrefix());
+      assertEquals(tree.size(), copy.size());
+
+      byte[] sorted = write(tree, AvlTree.Layout.SORTED);
+      assertEquals(10 + 4 * tree.size(), sorted.length);
+      copy = AvlTree.readFrom(new ByteArrayInputStream(sorted), ElementCodec.INTEGER);
+      assertEquals(tree.serializeInfix(), copy.serializeInfix());
+      for (int k = 0; k < copy.size(); k += 13)
+        assertEquals(tree.select(k), copy.select(k));
+    }
+  }
+
+  @Test
+  public void testChannelsAndComparator() throws IOException {
+    AvlTree<String> tree = new AvlTree<String>(Collections.reverseOrder());
+    for (String s : new String[] {"kiwi", "äpfel", "banana", ""})
+      tree.insert(s);
+
+    File file = File.createTempFile("avltree", ".bin");
+    try {
+      try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        tree.writeTo(ch, ElementCodec.STRING, AvlTree.Layout.SORTED);
+      }
+      AvlTree<String> copy;
+      try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        copy = AvlTree.readFrom(ch, ElementCodec.STRING, Collections.<String>reverseOrder());
+      }
+      assertEquals(tree.serializeInfix(), copy.serializeInfix());
+      assertTrue(copy.contains("äpfel"));
+      assertTrue(copy.insert("cherry"));
+      assertEquals("äpfel kiwi cherry banana  ", copy.serializeInfix());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testRejectsCorruptInput() throws IOException {
+    byte[] data = write(randomTree(50), AvlTree.Layout.PREFIX);
+    data[0] ^= 1;
+    try {
+      AvlTree.readFrom(new ByteArrayInputStream(data), ElementCodec.INTEGER);
+      fail();
+    } catch (StreamCorruptedException expected) {
+    }
+
+    data = write(randomTree(50), AvlTree.Layout.PREFIX);
+    // Claim one node fewer than the shape flags describe
+    data[9]--;
+    try {
+      AvlTree.readFrom(new ByteArrayInputStream(data), ElementCodec.INTEGER);
+      fail();
+    } catch (StreamCorruptedException expected) {
+    }
+  }
+
+  /**
+   * Build a prefix-layout stream by hand from each node's shape flags
+   * and element, in prefix order.
+   */
+  private static byte[] prefix(int[] flags, int[] elements) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(write(new AvlTree<Integer>(), AvlTree.Layout.PREFIX), 0, 6);
+    out.writeInt(elements.length);
+    for (int i = 0; i < elements.length; i++) {
+      out.writeByte(flags[i]);
+      out.writeInt(elements[i]);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void assertCorrupt(byte[] data) throws IOException {
+    try {
+      AvlTree.readFrom(new ByteArrayInputStream(data), ElementCodec.INTEGER);
+      fail();
+    } catch (StreamCorruptedException expected) {
+    }
+  }
+
+  @Test
+  public void testRejectsInvalidShapes() throws IOException {
+    final int L = 1, R = 2;
+    // A valid tree reads back
+    AvlTree<Integer> tree = AvlTree.readFrom(
+      new ByteArrayInputStream(prefix(new int[] {L | R, 0, 0}, new int[] {2, 1, 3})), ElementCodec.INTEGER);
+    assertTrue(tree.isValid());
+
+    // Out of order, both directly and below an ancestor
+    assertCorrupt(prefix(new int[] {L | R, 0, 0}, new int[] {2, 3, 1}));
+    assertCorrupt(prefix(new int[] {L | R, R, 0, 0}, new int[] {4, 2, 5, 6}));
+
+    // Unbalanced, though no taller than five nodes allow
+    assertCorrupt(prefix(new int[] {L, L | R, 0, 0, 0}, new int[] {4, 2, 1, 3, 0}));
+
+    // A long chain is rejected by its height before it can recurse deeply
+    int n = 1 << 20;
+    int[] flags = new int[n], elements = new int[n];
+    for (int i = 0; i < n; i++) {
+      flags[i] = i < n - 1 ? R : 0;
+      elements[i] = i;
+    }
+    assertCorrupt(prefix(flags, elements));
+  }
+
+  @Test
+  public void testRejectsBadCounts() throws IOException {
+    byte[] data = write(randomTree(50), AvlTree.Layout.SORTED);
+    // A huge count must not be used to size anything up front
+    data[6] = 0x7f;
+    data[7] = data[8] = data[9] = (byte) 0xff;
+    assertCorrupt(data);
+
+    data[6] = (byte) 0x80;
+    assertCorrupt(data);
+
+    data = write(randomTree(50), AvlTree.Layout.SORTED);
+    // Swap the first two elements
+    for (int i = 10; i < 14; i++) {
+      byte b = data[i];
+      data[i] = data[i + 4];
+      data[i + 4] = b;
+    }
+    assertCorrupt(data);
+  }
+
+  @Test
+  public void testRejectsCorruptLengths() throws IOException {
+    AvlTree<String> tree = new AvlTree<String>();
+    tree.insert("kiwi");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeTo(out, ElementCodec.STRING, AvlTree.Layout.SORTED);
+    byte[] data = out.toByteArray();
+
+    // The first element's byte count follows the ten-byte header
+    data[10] = (byte) 0x80;
+    try {
+      AvlTree.readFrom(new ByteArrayInputStream(data), ElementCodec.STRING);
+      fail();
+    } catch (StreamCorruptedException expected) {
+    }
+
+    // A huge count must not be used to size the array up front; the
+    // stream ends long before it is met
+    data[10] = 0x7f;
+    data[11] = data[12] = data[13] = (byte) 0xff;
+    try {
+      AvlTree.readFrom(new ByteArrayInputStream(data), ElementCodec.STRING);
+      fail();
+    } catch (StreamCorruptedException expected) {
+    }
+  }
+
+  @Test
+  public void testLongElementsRoundTrip() throws IOException {
+    // Longer than one read chunk, and not a multiple of it
+    char[] chars = new char[300001];
+    Arrays.fill(chars, 'x');
+    AvlTree<String> tree = new AvlTree<String>();
+    tree.insert(new String(chars));
+    tree.insert("y");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeTo(out, ElementCodec.STRING, AvlTree.Layout.SORTED);
+    AvlTree<String> copy = AvlTree.readFrom(new ByteArrayInputStream(out.toByteArray()), ElementCodec.STRING);
+    assertTrue(copy.contains(new String(chars)));
+    assertEquals(2, copy.size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testMultisetCannotBeWritten() throws IOException {
+    AvlMultiset<Integer> set = new AvlMultiset<Integer>();
+    set.insert(1);
+    set.writeTo(new ByteArrayOutputStream(), ElementCodec.INTEGER, AvlTree.Layout.SORTED);
+  }
+}
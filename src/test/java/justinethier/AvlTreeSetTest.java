@@ -0,0 +1,148 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class AvlTreeSetTest {
+  private static void assertSameSet(NavigableSet<Integer> expected, NavigableSet<Integer> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.isEmpty(), actual.isEmpty());
+    assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(actual));
+
+    List<Integer> down = new ArrayList<Integer>(), expectedDown = new ArrayList<Integer>();
+    for (Iterator<Integer> i = actual.descendingIterator(); i.hasNext(); )
+      down.add(i.next());
+    for (Iterator<Integer> i = expected.descendingIterator(); i.hasNext(); )
+      expectedDown.add(i.next());
+    assertEquals(expectedDown, down);
+
+    if (!expected.isEmpty()) {
+      assertEquals(expected.first(), actual.first());
+      assertEquals(expected.last(), actual.last());
+    }
+    for (int x = -2; x < 102; x++) {
+      assertEquals(expected.contains(x), actual.contains(x));
+      assertEquals(expected.lower(x), actual.lower(x));
+      assertEquals(expected.floor(x), actual.floor(x));
+      assertEquals(expected.ceiling(x), actual.ceiling(x));
+      assertEquals(expected.higher(x), actual.higher(x));
+    }
+  }
+
+  @Test
+  public void testMatchesTreeSet() {
+    AvlTreeSet<Integer> set = new AvlTreeSet<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(24);
+
+    for (int i = 0; i < 2000; i++) {
+      Integer x = r.nextInt(100);
+      if (r.nextInt(3) == 0)
+        assertEquals(expected.remove(x), set.remove(x));
+      else
+        assertEquals(expected.add(x), set.add(x));
+    }
+    assertSameSet(expected, set);
+    assertSameSet(expected.descendingSet(), set.descendingSet());
+    assertEquals(expected.pollFirst(), set.pollFirst());
+    assertEquals(expected.pollLast(), set.pollLast());
+    assertSameSet(expected, set);
+  }
+
+  @Test
+  public void testViews() {
+    AvlTreeSet<Integer> set = new AvlTreeSet<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 100; i += 3) {
+      set.add(i);
+      expected.add(i);
+    }
+
+    for (boolean a : new boolean[] {false, true}) {
+      for (boolean b : new boolean[] {false, true}) {
+        assertSameSet(expected.subSet(20, a, 70, b), set.subSet(20, a, 70, b));
+        assertSameSet(expected.subSet(21, a, 69, b), set.subSet(21, a, 69, b));
+        assertSameSet(expected.headSet(30, a), set.headSet(30, a));
+        assertSameSet(expected.tailSet(30, b), set.tailSet(30, b));
+        assertSameSet(expected.descendingSet().subSet(70, a, 20, b),
+                      set.descendingSet().subSet(70, a, 20, b));
+        assertSameSet(expected.descendingSet().headSet(50, a), set.descendingSet().headSet(50, a));
+        assertSameSet(expected.descendingSet().tailSet(50, b), set.descendingSet().tailSet(50, b));
+        assertSameSet(expected.subSet(10, a, 90, b).tailSet(40, a).descendingSet().headSet(60, b),
+                      set.subSet(10, a, 90, b).tailSet(40, a).descendingSet().headSet(60, b));
+      }
+    }
+    assertSameSet(expected.subSet(50, true, 50, false), set.subSet(50, true, 50, false));
+  }
+
+  @Test
+  public void testViewsAreLive() {
+    AvlTreeSet<Integer> set = new AvlTreeSet<Integer>();
+    NavigableSet<Integer> view = set.subSet(10, true, 20, false);
+    for (int i = 0; i < 30; i++)
+      set.add(i);
+    assertEquals(10, view.size());
+
+    view.remove(15);
+    assertFalse(set.contains(15));
+    view.add(15);
+    assertTrue(set.contains(15));
+    assertFalse(view.remove(25));
+
+    view.descendingSet().pollFirst();
+    assertFalse(set.contains(19));
+    view.clear();
+    assertTrue(view.isEmpty());
+    assertEquals(20, set.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddOutOfRange() {
+    new AvlTreeSet<Integer>().headSet(10, false).add(10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testViewOutOfRange() {
+    new AvlTreeSet<Integer>().headSet(10, false).tailSet(10, true);
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    AvlTreeSet<Integer> set = new AvlTreeSet<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 500; i++) {
+      set.add(i);
+      expected.add(i);
+    }
+
+    for (Iterator<Integer> i = set.subSet(100, true, 400, true).iterator(); i.hasNext(); )
+      if (i.next() % 3 != 0)
+        i.remove();
+    for (Iterator<Integer> i = set.descendingIterator(); i.hasNext(); )
+      if (i.next() % 5 == 0)
+        i.remove();
+    expected.subSet(100, true, 400, true).removeIf(x -> x % 3 != 0);
+    expected.removeIf(x -> x % 5 == 0);
+
+    assertSameSet(expected, set);
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void testFailFast() {
+    AvlTreeSet<Integer> set = new AvlTreeSet<Integer>();
+    for (int i = 0; i < 10; i++)
+      set.add(i);
+    for (Integer x : set.tailSet(5, true))
+      set.remove(x - 5);
+  }
+}
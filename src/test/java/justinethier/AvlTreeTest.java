@@ -2,7 +2,6 @@ package justinethier;// Test file from http://www.dreamincode.net/forums/topic/2
 
 import static org.junit.Assert.*;
 
-import org.junit.Ignore;
 import org.junit.Test;
 
 
@@ -43,24 +42,10 @@ public class AvlTreeTest {
   }
   
   private boolean checkOrderingOfTree(AvlTree.AvlNode<Integer> current) {
-    if(current.left != null) {
-      if(current.left.element.compareTo(current.element) > 0)
-        return false;
-      else
-        return checkOrderingOfTree(current.left);
-    } else  if(current.right != null) {
-      if(current.right.element.compareTo(current.element) < 0)
-        return false;
-      else
-        return checkOrderingOfTree(current.right);
-    } else if(current.left == null && current.right == null)
-      return true;
-    
-    return true;
+    return tree.checkOrderingOfTree(current);
   }
 
   @Test
-  @Ignore("Should be fixed")
   public void testRemove() {
     assertTrue(tree.isEmpty());
 
@@ -121,4 +106,410 @@ public class AvlTreeTest {
     assertTrue(checkOrderingOfTree(tree.root));
     assertFalse(tree.contains(83));
   }
+
+  @Test
+  public void testRandomInsertRemove() {
+    java.util.TreeSet<Integer> expected = new java.util.TreeSet<Integer>();
+    java.util.Random r = new java.util.Random(1);
+
+    for (int i = 0; i < 20000; i++) {
+      Integer x = r.nextInt(4000);
+      if (r.nextBoolean())
+        assertEquals(expected.add(x), tree.insert(x));
+      else
+        assertEquals(expected.remove(x), tree.remove(x));
+    }
+    assertTrue(checkBalanceOfTree(tree.root));
+    assertTrue(checkOrderingOfTree(tree.root));
+    tree.validate();
+
+    StringBuilder str = new StringBuilder();
+    for (Integer x : expected)
+      str.append(x).append(' ');
+    assertEquals(str.toString(), tree.serializeInfix());
+  }
+
+  private int checkSizes(AvlTree.AvlNode<Integer> t) {
+    if (t == null)
+      return 0;
+    int size = checkSizes(t.left) + checkSizes(t.right) + 1;
+    assertEquals(size, t.size);
+    return size;
+  }
+
+  @Test
+  public void testSelectAndRank() {
+    java.util.TreeSet<Integer> expected = new java.util.TreeSet<Integer>();
+    java.util.Random r = new java.util.Random(2);
+
+    for (int i = 0; i < 5000; i++) {
+      Integer x = r.nextInt(2000) * 2;
+      if (r.nextInt(3) == 0)
+        assertEquals(expected.remove(x), tree.remove(x));
+      else
+        assertEquals(expected.add(x), tree.insert(x));
+    }
+    checkSizes(tree.root);
+    assertEquals(expected.size(), tree.size());
+
+    int k = 0;
+    for (Integer x : expected) {
+      assertEquals(x, tree.select(k));
+      assertEquals(k, tree.rank(x));
+      assertEquals(k + 1, tree.rank(x + 1));
+      k++;
+    }
+    assertEquals(0, tree.rank(-1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testSelectOutOfRange() {
+    insert(1, 2, 3);
+    tree.select(3);
+  }
+
+  @Test
+  public void testRangeQueries() {
+    for (int i = 0; i < 100; i++)
+      tree.insert(i * 3);
+
+    assertEquals(3, tree.rangeCount(10, 20));
+    assertEquals(5, tree.rangeCount(9, 21));
+    assertEquals(100, tree.rangeCount(-5, 1000));
+    assertEquals(0, tree.rangeCount(20, 10));
+    assertEquals(0, tree.rangeCount(1, 2));
+
+    final StringBuilder visited = new StringBuilder();
+    tree.forEachInRange(9, 21, new java.util.function.Consumer<Integer>() {
+      public void accept(Integer x) {
+        visited.append(x).append(' ');
+      }
+    });
+    assertEquals("9 12 15 18 21 ", visited.toString());
+
+    StringBuilder iterated = new StringBuilder();
+    java.util.Iterator<Integer> it = tree.rangeIterator(10, 20);
+    while (it.hasNext())
+      iterated.append(it.next()).append(' ');
+    assertEquals("12 15 18 ", iterated.toString());
+
+    it = tree.rangeIterator(290, null);
+    assertEquals(Integer.valueOf(291), it.next());
+    assertEquals(Integer.valueOf(294), it.next());
+    assertEquals(Integer.valueOf(297), it.next());
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testIterationAndStreams() {
+    long sum = 0;
+    for (int i = 0; i < 10000; i++) {
+      tree.insert(i);
+      sum += i;
+    }
+
+    int expected = 0;
+    for (Integer x : tree)
+      assertEquals(expected++, x.intValue());
+    assertEquals(10000, expected);
+
+    assertEquals(sum, tree.stream().mapToLong(Integer::longValue).sum());
+    assertEquals(sum, tree.parallelStream().mapToLong(Integer::longValue).sum());
+    assertEquals(10000, tree.parallelStream().count());
+    assertEquals(java.util.Arrays.asList(9997, 9998, 9999),
+        tree.parallelStream().filter(x -> x > 9996)
+            .collect(java.util.stream.Collectors.toList()));
+
+    java.util.Spliterator<Integer> right = tree.spliterator();
+    java.util.Spliterator<Integer> left = right.trySplit();
+    assertEquals(10000, left.estimateSize() + right.estimateSize());
+    final int[] count = new int[1];
+    left.forEachRemaining(x -> count[0]++);
+    assertEquals(0, left.estimateSize());
+    assertEquals(10000, count[0] + right.estimateSize());
+  }
+
+  @Test
+  public void testFromSorted() {
+    for (int n = 0; n < 70; n++) {
+      Integer[] sorted = new Integer[n];
+      for (int i = 0; i < n; i++)
+        sorted[i] = i * 2;
+
+      tree = AvlTree.fromSorted(sorted);
+      assertEquals(n, tree.size());
+      if (n > 0) {
+        assertTrue(checkBalanceOfTree(tree.root));
+        assertTrue(checkOrderingOfTree(tree.root));
+        checkSizes(tree.root);
+        assertEquals(getDepth(tree.root) - 1, tree.height(tree.root));
+      }
+      for (int i = 0; i < n; i++)
+        assertEquals(sorted[i], tree.select(i));
+
+      // The result is an ordinary tree that accepts further updates
+      tree.insert(-1);
+      tree.remove(0);
+      assertEquals(Math.max(n, 1), tree.size());
+    }
+
+    tree = AvlTree.fromSorted(java.util.stream.IntStream.range(0, 1000).boxed());
+    assertEquals(1000, tree.size());
+    assertEquals(Integer.valueOf(999), tree.findMax());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromSortedCheckedRejectsDuplicates() {
+    AvlTree.fromSortedChecked(new Integer[] {1, 2, 2, 3});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromSortedCheckedRejectsUnsorted() {
+    AvlTree.fromSortedChecked(java.util.Arrays.asList(1, 3, 2).iterator());
+  }
+
+  private AvlTree<Integer> randomTree(java.util.Random r, int n, int range,
+                                     java.util.TreeSet<Integer> copy) {
+    AvlTree<Integer> t = new AvlTree<Integer>();
+    for (int i = 0; i < n; i++) {
+      Integer x = r.nextInt(range);
+      t.insert(x);
+      copy.add(x);
+    }
+    return t;
+  }
+
+  private void assertTreeEquals(java.util.TreeSet<Integer> expected, AvlTree<Integer> t) {
+    if (t.root != null) {
+      assertTrue(checkBalanceOfTree(t.root));
+      checkSizes(t.root);
+    }
+    assertEquals(new java.util.ArrayList<Integer>(expected),
+        t.stream().collect(java.util.stream.Collectors.toList()));
+  }
+
+  @Test
+  public void testJoinAndSplit() {
+    java.util.Random r = new java.util.Random(4);
+    java.util.TreeSet<Integer> expected = new java.util.TreeSet<Integer>();
+    AvlTree<Integer> small = randomTree(r, 10, 100, expected);
+    java.util.TreeSet<Integer> high = new java.util.TreeSet<Integer>();
+    AvlTree<Integer> large = randomTree(r, 3000, 100000, high);
+    for (Integer x : high)
+      expected.add(x + 1000);
+    large = AvlTree.fromSorted(expected.tailSet(1000).iterator());
+
+    AvlTree<Integer> joined = AvlTree.join(small, 500, large);
+    expected.add(500);
+    assertTrue(small.isEmpty());
+    assertTrue(large.isEmpty());
+    assertTreeEquals(expected, joined);
+
+    for (int key : new int[] {-1, 500, 2000, 50000, 200000}) {
+      AvlTree<Integer> copy = AvlTree.fromSorted(expected.iterator());
+      AvlTree.Split<Integer> parts = copy.split(key);
+      assertTrue(copy.isEmpty());
+      assertEquals(expected.contains(key), parts.found);
+      assertTreeEquals(new java.util.TreeSet<Integer>(expected.headSet(key)), parts.left);
+      assertTreeEquals(new java.util.TreeSet<Integer>(expected.tailSet(key, false)), parts.right);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testJoinRejectsUnorderedTrees() {
+    insert(1, 2, 3);
+    AvlTree.join(tree, 2, new AvlTree<Integer>());
+  }
+
+  @Test
+  public void testSetOperations() {
+    java.util.Random r = new java.util.Random(5);
+    // The larger sizes take the fork/join path
+    for (int n : new int[] {0, 1, 50, 20000}) {
+      for (int m : new int[] {0, 7, 1000, 30000}) {
+        java.util.TreeSet<Integer> a = new java.util.TreeSet<Integer>();
+        java.util.TreeSet<Integer> b = new java.util.TreeSet<Integer>();
+        AvlTree<Integer> ta = randomTree(r, n, 60000, a);
+        AvlTree<Integer> tb = randomTree(r, m, 60000, b);
+
+        java.util.TreeSet<Integer> expected = new java.util.TreeSet<Integer>(a);
+        expected.addAll(b);
+        AvlTree<Integer> t = AvlTree.fromSorted(a.iterator());
+        t.union(AvlTree.fromSorted(b.iterator()));
+        assertTreeEquals(expected, t);
+
+        expected = new java.util.TreeSet<Integer>(a);
+        expected.retainAll(b);
+        t = AvlTree.fromSorted(a.iterator());
+        t.intersection(AvlTree.fromSorted(b.iterator()));
+        assertTreeEquals(expected, t);
+
+        expected = new java.util.TreeSet<Integer>(a);
+        expected.removeAll(b);
+        ta.difference(tb);
+        assertTrue(tb.isEmpty());
+        assertTreeEquals(expected, ta);
+      }
+    }
+  }
+
+  @Test
+  public void testComparator() {
+    AvlTree<Integer> t = new AvlTree<Integer>(java.util.Collections.reverseOrder());
+    for (int i = 0; i < 100; i++)
+      t.insert(i);
+    assertFalse(t.insert(5));
+    assertEquals(Integer.valueOf(99), t.findMin());
+    assertEquals(Integer.valueOf(90), t.select(9));
+    assertEquals(10, t.rangeCount(20, 11));
+    assertEquals(java.util.Collections.reverseOrder(), t.spliterator().getComparator());
+    assertTrue(t.remove(99));
+    assertEquals(Integer.valueOf(98), t.iterator().next());
+
+    AvlTree.Split<Integer> parts = t.split(50);
+    assertEquals(Integer.valueOf(51), parts.left.findMax());
+    AvlTree<Integer> joined = AvlTree.join(parts.left, 50, parts.right);
+    assertEquals(99, joined.size());
+    assertTrue(joined.contains(0));
+  }
+
+  @Test
+  public void testValidate() {
+    tree.validate();
+    // Large enough to be checked in parallel
+    for (int i = 0; i < 50000; i++)
+      tree.insert(i);
+    tree.validate();
+    assertTrue(tree.isValid());
+    assertTrue(tree.checkBalanceOfTree(tree.root));
+
+    // A misplaced element deep in the tree, legal against its parent
+    AvlTree.AvlNode<Integer> t = tree.root.left;
+    while (t.right.right != null)
+      t = t.right;
+    Integer saved = t.right.element;
+    t.right.element = tree.root.element + 1;
+    assertFalse(tree.isValid());
+    t.right.element = saved;
+
+    tree.root.left.height++;
+    assertFalse(tree.isValid());
+    tree.root.left.height--;
+
+    tree.root.right.size--;
+    assertFalse(tree.isValid());
+    tree.root.right.size++;
+
+    AvlTree.AvlNode<Integer> leaf = tree.root;
+    while (leaf.left != null)
+      leaf = leaf.left;
+    leaf.left = new AvlTree.AvlNode<Integer>(-2, new AvlTree.AvlNode<Integer>(-3), null);
+    assertFalse(tree.checkBalanceOfTree(tree.root));
+    try {
+      tree.validate();
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void testCheckOrdering() {
+    insert(4, 2, 6, 1, 3, 5, 7);
+    assertTrue(tree.checkOrderingOfTree(tree.root));
+
+    // Out of order in the right subtree of a node that has a left child
+    tree.root.left.right.element = 8;
+    assertFalse(tree.checkOrderingOfTree(tree.root));
+    tree.root.left.right.element = 3;
+
+    // Legal against its parent, but not against the root
+    tree.root.right.left.element = 0;
+    assertFalse(tree.checkOrderingOfTree(tree.root));
+    tree.root.right.left.element = 5;
+    assertTrue(tree.checkOrderingOfTree(tree.root));
+  }
+
+  @Test
+  public void testSampledValidation() {
+    // A comparator that changes its mind corrupts the tree
+    final boolean[] flipped = {false};
+    AvlTree<Integer> t = new AvlTree<Integer>((a, b) -> flipped[0] ? b.compareTo(a) : a.compareTo(b));
+    t.setValidationSampling(1);
+    for (int i = 0; i < 100; i++)
+      t.insert(i);
+    t.checkPath(50);
+
+    flipped[0] = true;
+    try {
+      t.insert(1000);
+      fail();
+    } catch (IllegalStateException e) {
+    }
+    assertTrue(t.contains(1000));
+    assertFalse(t.isValid());
+  }
+
+  @Test
+  public void testNavigation() {
+    java.util.TreeSet<Integer> expected = new java.util.TreeSet<Integer>();
+    java.util.Random r = new java.util.Random(12);
+    for (int i = 0; i < 500; i++) {
+      Integer x = r.nextInt(2000);
+      tree.insert(x);
+      expected.add(x);
+    }
+    for (int x = -5; x < 2005; x++) {
+      assertEquals(expected.floor(x), tree.floor(x));
+      assertEquals(expected.lower(x), tree.lower(x));
+      assertEquals(expected.ceiling(x), tree.ceiling(x));
+      assertEquals(expected.higher(x), tree.higher(x));
+    }
+    assertNull(new AvlTree<Integer>().floor(1));
+  }
+
+  @Test
+  public void testMetrics() {
+    CountingMetrics metrics = new CountingMetrics();
+    tree.setMetrics(metrics);
+    for (int i = 0; i < 7; i++)
+      tree.insert(i);
+    tree.insert(3);
+    tree.remove(0);
+    tree.remove(0);
+    assertTrue(tree.contains(6));
+
+    assertEquals(7, metrics.getInsertions());
+    assertEquals(1, metrics.getDuplicates());
+    assertEquals(1, metrics.getRemovals());
+    assertEquals(1, metrics.getRemoveMisses());
+    assertEquals(4, metrics.getSingleRotations());
+    assertEquals(0, metrics.getDoubleRotations());
+    assertEquals(11, metrics.getSearchPathLengths().getCount());
+    assertEquals(3, metrics.getSearchPathLengths().getMax());
+
+    metrics.reset();
+    assertEquals(0, metrics.getInsertions());
+    assertEquals(0, metrics.getSearchPathLengths().getCount());
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    Histogram h = new Histogram();
+    for (long v = 0; v < 1000000; v = v * 3 / 2 + 1) {
+      int b = Histogram.bucket(v);
+      assertTrue(Histogram.highestValue(b) >= v);
+      assertTrue(b == 0 || Histogram.highestValue(b - 1) < v);
+      assertTrue(Histogram.highestValue(b) <= v + v / 8);
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.bucket(Long.MAX_VALUE)));
+
+    for (int i = 1; i <= 100; i++)
+      h.record(i);
+    assertEquals(100, h.getCount());
+    assertEquals(100, h.getMax());
+    assertEquals(10, h.getValueAtPercentile(10));
+    long median = h.getValueAtPercentile(50);
+    assertTrue(median >= 50 && median <= 55);
+    assertEquals(100, h.getValueAtPercentile(100));
+  }
 }
@@ -0,0 +1,67 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+
+public class ConcurrentAvlTreeTest {
+  @Test
+  public void testMatchesTreeSet() {
+    ConcurrentAvlTree<Integer> tree = new ConcurrentAvlTree<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(9);
+
+    for (int i = 0; i < 20000; i++) {
+      Integer x = r.nextInt(3000);
+      if (r.nextBoolean())
+        assertEquals(expected.add(x), tree.insert(x));
+      else
+        assertEquals(expected.remove(x), tree.remove(x));
+    }
+    assertEquals(expected.size(), tree.size());
+    assertEquals(expected.first(), tree.findMin());
+    assertEquals(expected.last(), tree.findMax());
+    for (int x = 0; x < 3000; x++)
+      assertEquals(expected.contains(x), tree.contains(x));
+  }
+
+  @Test
+  public void testReadersSeeStableKeysDuringWrites() throws Exception {
+    final ConcurrentAvlTree<Integer> tree = new ConcurrentAvlTree<Integer>();
+    // Even keys are never touched by the writer
+    for (int i = 0; i < 10000; i += 2)
+      tree.insert(i);
+
+    final AtomicBoolean failed = new AtomicBoolean();
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        public void run() {
+          Random r = new Random();
+          while (!done.get()) {
+            if (!tree.contains(r.nextInt(5000) * 2))
+              failed.set(true);
+          }
+        }
+      });
+      readers[i].start();
+    }
+
+    Random r = new Random(11);
+    for (int i = 0; i < 50000; i++) {
+      int odd = r.nextInt(5000) * 2 + 1;
+      if (!tree.insert(odd))
+        tree.remove(odd);
+    }
+    done.set(true);
+    for (Thread t : readers)
+      t.join();
+    assertFalse(failed.get());
+  }
+}
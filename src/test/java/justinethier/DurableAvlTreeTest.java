@@ -0,0 +1,239 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DurableAvlTreeTest {
+  private Path dir;
+
+  @Before
+  public void createDirectory() throws IOException {
+    dir = Files.createTempDirectory("avltree");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+  }
+
+  private static void randomUpdates(DurableAvlTree<Integer> tree, TreeSet<Integer> expected,
+                                    Random r, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      Integer x = r.nextInt(2000);
+      if (r.nextInt(3) > 0)
+        assertEquals(expected.add(x), tree.insert(x));
+      else
+        assertEquals(expected.remove(x), tree.remove(x));
+    }
+  }
+
+  private static void assertContents(TreeSet<Integer> expected, DurableAvlTree<Integer> tree) {
+    assertEquals(expected.size(), tree.size());
+    for (int x = 0; x < 2000; x++)
+      assertEquals(expected.contains(x), tree.contains(x));
+  }
+
+  @Test
+  public void testRecoversFromSnapshotAndLog() throws IOException {
+    for (DurableAvlTree.Durability d : DurableAvlTree.Durability.values()) {
+      deleteDirectory();
+      Files.createDirectories(dir);
+      TreeSet<Integer> expected = new TreeSet<Integer>();
+      Random r = new Random(d.ordinal());
+
+      DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, d);
+      randomUpdates(tree, expected, r, 3000);
+      tree.snapshot();
+      randomUpdates(tree, expected, r, 3000);
+      tree.close();
+
+      tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, d);
+      assertContents(expected, tree);
+      assertEquals(expected.first(), tree.findMin());
+      assertEquals(expected.last(), tree.findMax());
+      randomUpdates(tree, expected, r, 1000);
+      tree.close();
+
+      tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, d);
+      assertContents(expected, tree);
+      tree.close();
+    }
+  }
+
+  @Test
+  public void testIgnoresTornLogTail() throws IOException {
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                       DurableAvlTree.Durability.FSYNC);
+    randomUpdates(tree, expected, new Random(3), 500);
+    tree.close();
+
+    // A half-written record, as left by a crash during a write
+    try (FileChannel log = FileChannel.open(dir.resolve("wal"), StandardOpenOption.WRITE,
+                                            StandardOpenOption.APPEND)) {
+      log.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 5, 1, 2, 3, 4, 1, 0}));
+    }
+    long torn = Files.size(dir.resolve("wal"));
+
+    tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.FSYNC);
+    assertContents(expected, tree);
+    assertEquals(torn - 10, Files.size(dir.resolve("wal")));
+    assertTrue(tree.insert(5000));
+    tree.close();
+
+    tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.FSYNC);
+    assertTrue(tree.contains(5000));
+    tree.close();
+  }
+
+  @Test
+  public void testGroupCommitFromManyThreads() throws Exception {
+    final DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                             DurableAvlTree.Durability.FSYNC);
+    Thread[] writers = new Thread[4];
+    for (int i = 0; i < writers.length; i++) {
+      final int base = i * 1000;
+      writers[i] = new Thread(() -> {
+        try {
+          for (int x = base; x < base + 250; x++)
+            tree.insert(x);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      writers[i].start();
+    }
+    for (Thread t : writers)
+      t.join();
+    // Recover a copy of the log, as a crash would leave it; the tree is
+    // not closed, and still holds the directory's lock
+    Path copy = dir.resolve("copy");
+    Files.createDirectories(copy);
+    Files.copy(dir.resolve("wal"), copy.resolve("wal"));
+    DurableAvlTree<Integer> recovered = DurableAvlTree.open(copy, ElementCodec.INTEGER,
+                                                            DurableAvlTree.Durability.FSYNC);
+    assertEquals(1000, recovered.size());
+    recovered.close();
+    tree.close();
+  }
+
+  @Test
+  public void testDirectoryIsLocked() throws IOException {
+    DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                       DurableAvlTree.Durability.WRITE);
+    tree.insert(1);
+    try {
+      DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.WRITE);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertTrue(tree.insert(2));
+    tree.close();
+
+    tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.WRITE);
+    assertEquals(2, tree.size());
+    tree.close();
+  }
+
+  /**
+   * Run in a child process: exit with 0 if the lock file in the given
+   * directory can be locked, 1 if not.
+   */
+  public static final class TryLock {
+    public static void main(String[] args) throws IOException {
+      try (FileChannel ch = FileChannel.open(Paths.get(args[0], "lock"), StandardOpenOption.WRITE)) {
+        System.exit(ch.tryLock() != null ? 0 : 1);
+      }
+    }
+  }
+
+  private int tryLockInChildProcess() throws IOException, InterruptedException {
+    Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                   "-cp", System.getProperty("java.class.path"),
+                                   TryLock.class.getName(), dir.toString())
+      .inheritIO().start();
+    return p.waitFor();
+  }
+
+  @Test
+  public void testFailedOpenKeepsLock() throws IOException, InterruptedException {
+    DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                       DurableAvlTree.Durability.WRITE);
+    try {
+      // Also through another spelling of the same directory
+      for (Path path : new Path[] {dir, dir.resolve(".")}) {
+        try {
+          DurableAvlTree.open(path, ElementCodec.INTEGER, DurableAvlTree.Durability.WRITE);
+          fail();
+        } catch (IOException expected) {
+        }
+      }
+      assertEquals(1, tryLockInChildProcess());
+    } finally {
+      tree.close();
+    }
+    assertEquals(0, tryLockInChildProcess());
+  }
+
+  @Test
+  public void testFailedSnapshotCanBeRetried() throws IOException {
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(20);
+    DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                       DurableAvlTree.Durability.FSYNC);
+    randomUpdates(tree, expected, r, 500);
+
+    // A directory in the way of the temporary snapshot file
+    Path blocker = dir.resolve("snapshot.tmp");
+    Files.createDirectories(blocker.resolve("x"));
+    try {
+      tree.snapshot();
+      fail();
+    } catch (IOException e) {
+    }
+    assertFalse(Files.exists(dir.resolve("snapshot")));
+    randomUpdates(tree, expected, r, 500);
+
+    Files.delete(blocker.resolve("x"));
+    Files.delete(blocker);
+    tree.snapshot();
+    randomUpdates(tree, expected, r, 500);
+    tree.close();
+
+    tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.FSYNC);
+    assertContents(expected, tree);
+    tree.close();
+  }
+
+  @Test
+  public void testBackgroundSnapshot() throws Exception {
+    DurableAvlTree<Integer> tree = DurableAvlTree.open(dir, ElementCodec.INTEGER,
+                                                       DurableAvlTree.Durability.BATCH);
+    tree.setSnapshotThreshold(1000);
+    for (int x = 0; x < 500; x++)
+      tree.insert(x);
+    for (int i = 0; i < 500 && !Files.exists(dir.resolve("snapshot")); i++)
+      Thread.sleep(10);
+    assertTrue(Files.exists(dir.resolve("snapshot")));
+    tree.close();
+
+    tree = DurableAvlTree.open(dir, ElementCodec.INTEGER, DurableAvlTree.Durability.BATCH);
+    assertEquals(500, tree.size());
+    tree.close();
+  }
+}
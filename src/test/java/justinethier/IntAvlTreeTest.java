@@ -0,0 +1,86 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class IntAvlTreeTest {
+  private int checkBalance(IntAvlTree.IntAvlNode t) {
+    if (t == null)
+      return -1;
+    int l = checkBalance(t.left), r = checkBalance(t.right);
+    assertTrue(Math.abs(l - r) < 2);
+    assertEquals(Math.max(l, r) + 1, t.height);
+    return t.height;
+  }
+
+  @Test
+  public void testInsertRemove() {
+    IntAvlTree tree = new IntAvlTree();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(42);
+
+    for (int i = 0; i < 5000; i++) {
+      int x = r.nextInt(2000) - 1000;
+      assertEquals(expected.add(x), tree.insert(x));
+    }
+    checkBalance(tree.root);
+    assertEquals(expected.size(), tree.size());
+    assertEquals(expected.first().intValue(), tree.findMin());
+    assertEquals(expected.last().intValue(), tree.findMax());
+
+    for (int i = 0; i < 5000; i++) {
+      int x = r.nextInt(2000) - 1000;
+      assertEquals(expected.remove(x), tree.remove(x));
+      assertFalse(tree.contains(x));
+    }
+    checkBalance(tree.root);
+    assertEquals(expected.size(), tree.size());
+    for (int x : expected)
+      assertTrue(tree.contains(x));
+  }
+
+  @Test
+  public void testLongKeys() {
+    LongAvlTree tree = new LongAvlTree();
+    assertTrue(tree.isEmpty());
+    for (long i = 0; i < 100; i++)
+      assertTrue(tree.insert(i * 10000000000L));
+    assertFalse(tree.insert(0));
+    assertEquals(0, tree.findMin());
+    assertEquals(990000000000L, tree.findMax());
+    assertTrue(tree.remove(990000000000L));
+    assertFalse(tree.remove(990000000000L));
+    assertEquals(980000000000L, tree.findMax());
+    assertEquals(99, tree.size());
+
+    assertEquals(20000000000L, tree.floorOrDefault(25000000000L, -1));
+    assertEquals(30000000000L, tree.ceilingOrDefault(25000000000L, -1));
+    assertEquals(-1, tree.lowerOrDefault(0, -1));
+    assertEquals(-1, tree.higherOrDefault(980000000000L, -1));
+  }
+
+  @Test
+  public void testNavigation() {
+    IntAvlTree tree = new IntAvlTree();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(8);
+    for (int i = 0; i < 500; i++) {
+      int x = r.nextInt(2000);
+      tree.insert(x);
+      expected.add(x);
+    }
+    for (int x = -5; x < 2005; x++) {
+      Integer floor = expected.floor(x), lower = expected.lower(x);
+      Integer ceiling = expected.ceiling(x), higher = expected.higher(x);
+      assertEquals(floor == null ? -1 : floor, tree.floorOrDefault(x, -1));
+      assertEquals(lower == null ? -1 : lower, tree.lowerOrDefault(x, -1));
+      assertEquals(ceiling == null ? -1 : ceiling, tree.ceilingOrDefault(x, -1));
+      assertEquals(higher == null ? -1 : higher, tree.higherOrDefault(x, -1));
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class KeyComparatorsTest {
+  private static int naive(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++)
+      if (a[i] != b[i])
+        return (a[i] & 0xff) - (b[i] & 0xff);
+    return a.length - b.length;
+  }
+
+  @Test
+  public void testBytesMatchesUnsignedOrder() {
+    Random r = new Random(17);
+    for (int i = 0; i < 100000; i++) {
+      byte[] a = new byte[r.nextInt(20)];
+      r.nextBytes(a);
+      byte[] b = a.clone();
+      // Share a prefix, then diverge, so that every word position gets tested
+      if (b.length > 0 && r.nextBoolean())
+        b[r.nextInt(b.length)] = (byte) r.nextInt(256);
+      if (r.nextInt(4) == 0)
+        b = java.util.Arrays.copyOf(b, r.nextInt(20));
+      assertEquals(Integer.signum(naive(a, b)), Integer.signum(KeyComparators.BYTES.compare(a, b)));
+    }
+  }
+
+  @Test
+  public void testTreesWithComparators() {
+    AvlTree<byte[]> bytes = new AvlTree<byte[]>(KeyComparators.BYTES);
+    bytes.insert(new byte[] {(byte) 0x80});
+    bytes.insert(new byte[] {0x7f});
+    bytes.insert(new byte[] {0x7f, 0});
+    assertFalse(bytes.insert(new byte[] {0x7f}));
+    assertTrue(bytes.contains(new byte[] {0x7f, 0}));
+    assertEquals((byte) 0x80, bytes.findMax()[0]);
+
+    AvlTree<String> strings = new AvlTree<String>(KeyComparators.STRING);
+    for (String s : new String[] {"pear", "apple", "fig"})
+      strings.insert(s);
+    assertEquals("apple fig pear ", strings.serializeInfix());
+
+    AvlMap<String, Integer> lengths = new AvlMap<String, Integer>(KeyComparators.comparingLong(String::length));
+    lengths.put("ab", 1);
+    assertEquals(Integer.valueOf(1), lengths.put("cd", 2));
+    assertEquals(Integer.valueOf(2), lengths.get("xy"));
+
+    AvlTree<Long> longs = new AvlTree<Long>(KeyComparators.LONG);
+    for (long x = 0; x < 100; x++)
+      longs.insert(x * 7919 % 101);
+    assertEquals(Long.valueOf(50), longs.select(50));
+  }
+}
@@ -0,0 +1,196 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class LinkedAvlTreeTest {
+  /**
+   * Check every node's parent link, returning the subtree's size.
+   */
+  private static int checkParents(AvlTree.AvlNode<Integer> t, AvlTree.AvlNode<Integer> parent) {
+    if (t == null)
+      return 0;
+    assertSame(parent, ((LinkedAvlTree.LinkedNode<Integer>) t).parent);
+    return checkParents(t.left, t) + checkParents(t.right, t) + 1;
+  }
+
+  private static void assertMatches(TreeSet<Integer> expected, LinkedAvlTree<Integer> tree) {
+    assertEquals(expected.size(), checkParents(tree.root, null));
+    assertTrue(tree.isValid());
+
+    List<Integer> up = new ArrayList<Integer>(), down = new ArrayList<Integer>();
+    for (LinkedAvlTree<Integer>.Cursor c = tree.first(); c.isValid(); c.successor())
+      up.add(c.element());
+    for (LinkedAvlTree<Integer>.Cursor c = tree.last(); c.isValid(); c.predecessor())
+      down.add(c.element());
+    assertEquals(new ArrayList<Integer>(expected), up);
+    assertEquals(new ArrayList<Integer>(expected.descendingSet()), down);
+  }
+
+  @Test
+  public void testParentLinks() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    Random r = new Random(25);
+
+    for (int i = 0; i < 20000; i++) {
+      Integer x = r.nextInt(2000);
+      if (r.nextInt(3) == 0)
+        assertEquals(expected.remove(x), tree.remove(x));
+      else
+        assertEquals(expected.add(x), tree.insert(x));
+      if (i % 1000 == 0)
+        assertMatches(expected, tree);
+    }
+    assertMatches(expected, tree);
+  }
+
+  @Test
+  public void testSetOperations() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 20000; i += 2) {
+      tree.insert(i);
+      expected.add(i);
+    }
+
+    LinkedAvlTree<Integer> other = new LinkedAvlTree<Integer>();
+    for (int i = 0; i < 30000; i += 3) {
+      other.insert(i);
+      expected.add(i);
+    }
+    tree.union(other);
+    assertMatches(expected, tree);
+
+    AvlTree<Integer> plain = new AvlTree<Integer>();
+    for (int i = 0; i < 30000; i += 5)
+      plain.insert(i);
+    tree.difference(plain);
+    expected.removeIf(x -> x % 5 == 0);
+    assertMatches(expected, tree);
+
+    plain = new AvlTree<Integer>();
+    for (int i = 0; i < 30000; i += 7)
+      plain.insert(i);
+    tree.intersection(plain);
+    expected.removeIf(x -> x % 7 != 0);
+    assertMatches(expected, tree);
+  }
+
+  @Test
+  public void testUnionWithPlainTree() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 1000; i += 2) {
+      tree.insert(i);
+      expected.add(i);
+    }
+
+    AvlTree<Integer> plain = new AvlTree<Integer>();
+    for (int i = 0; i < 3000; i += 3) {
+      plain.insert(i);
+      expected.add(i);
+    }
+    tree.union(plain);
+    assertTrue(plain.isEmpty());
+    assertMatches(expected, tree);
+
+    // A plain tree merged into an empty one is taken over whole
+    LinkedAvlTree<Integer> empty = new LinkedAvlTree<Integer>();
+    plain = new AvlTree<Integer>();
+    expected.clear();
+    for (int i = 0; i < 100; i++) {
+      plain.insert(i);
+      expected.add(i);
+    }
+    empty.union(plain);
+    assertMatches(expected, empty);
+  }
+
+  @Test
+  public void testSplitAndJoin() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 1000; i += 3) {
+      tree.insert(i);
+      expected.add(i);
+    }
+
+    LinkedAvlTree<Integer>.Cursor c = tree.first();
+    AvlTree.Split<Integer> parts = tree.split(500);
+    assertFalse(parts.found);
+    assertTrue(tree.isEmpty());
+    try {
+      c.successor();
+      fail();
+    } catch (ConcurrentModificationException e) {
+    }
+
+    // Both halves keep parent links, with a cleared link at the root
+    LinkedAvlTree<Integer> left = (LinkedAvlTree<Integer>) parts.left;
+    LinkedAvlTree<Integer> right = (LinkedAvlTree<Integer>) parts.right;
+    assertMatches(new TreeSet<Integer>(expected.headSet(500)), left);
+    assertMatches(new TreeSet<Integer>(expected.tailSet(500)), right);
+
+    c = right.first();
+    LinkedAvlTree<Integer> joined = (LinkedAvlTree<Integer>) AvlTree.join(left, 500, right);
+    assertTrue(left.isEmpty());
+    assertTrue(right.isEmpty());
+    try {
+      c.element();
+      fail();
+    } catch (ConcurrentModificationException e) {
+    }
+    expected.add(500);
+    assertMatches(expected, joined);
+
+    // A plain right tree is copied into linked nodes
+    AvlTree<Integer> plain = new AvlTree<Integer>();
+    for (int i = 2000; i < 2100; i++) {
+      plain.insert(i);
+      expected.add(i);
+    }
+    joined = (LinkedAvlTree<Integer>) AvlTree.join(joined, 1500, plain);
+    assertTrue(plain.isEmpty());
+    expected.add(1500);
+    assertMatches(expected, joined);
+  }
+
+  @Test
+  public void testCursor() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    assertFalse(tree.first().isValid());
+    for (int i = 0; i < 100; i += 10)
+      tree.insert(i);
+
+    LinkedAvlTree<Integer>.Cursor c = tree.cursor(35);
+    assertEquals(Integer.valueOf(40), c.element());
+    assertTrue(c.predecessor());
+    assertEquals(Integer.valueOf(30), c.element());
+    assertEquals(Integer.valueOf(90), tree.cursor(90).element());
+    assertFalse(tree.cursor(91).isValid());
+
+    c = tree.last();
+    assertFalse(c.successor());
+    assertFalse(c.isValid());
+    assertFalse(c.predecessor());
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void testCursorFailFast() {
+    LinkedAvlTree<Integer> tree = new LinkedAvlTree<Integer>();
+    tree.insert(1);
+    tree.insert(2);
+    LinkedAvlTree<Integer>.Cursor c = tree.first();
+    tree.remove(1);
+    c.successor();
+  }
+}
@@ -0,0 +1,190 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class MappedAvlTreeTest {
+  @Test
+  public void testMatchesTreeSet() throws IOException {
+    AvlTree<Long> tree = new AvlTree<Long>();
+    TreeSet<Long> expected = new TreeSet<Long>();
+    Random r = new Random(23);
+    for (int i = 0; i < 20000; i++) {
+      long x = r.nextInt(100000) - 50000;
+      tree.insert(x);
+      expected.add(x);
+    }
+    tree.insert(Long.MAX_VALUE);
+    expected.add(Long.MAX_VALUE);
+
+    Path file = File.createTempFile("avltree", ".map").toPath();
+    try {
+      MappedAvlTree.write(tree, file);
+      MappedAvlTree mapped = MappedAvlTree.open(file);
+      assertEquals(expected.size(), mapped.size());
+      assertEquals((long) expected.first(), mapped.findMin());
+      assertEquals(Long.MAX_VALUE, mapped.findMax());
+      for (int i = 0; i < 20000; i++) {
+        long x = r.nextInt(110000) - 55000;
+        assertEquals(expected.contains(x), mapped.contains(x));
+        assertEquals(expected.headSet(x).size(), mapped.rank(x));
+      }
+      for (int k = 0; k < mapped.size(); k += 101)
+        assertEquals((long) tree.select(k), mapped.select(k));
+
+      assertEquals(expected.subSet(-100L, true, 100L, true).size(), mapped.rangeCount(-100, 100));
+      assertEquals(expected.tailSet(49000L).size(), mapped.rangeCount(49000, Long.MAX_VALUE));
+      List<Long> ranged = new ArrayList<Long>();
+      mapped.forEachInRange(-100, 100, ranged::add);
+      assertEquals(new ArrayList<Long>(expected.subSet(-100L, true, 100L, true)), ranged);
+
+      mapped.close();
+      try {
+        mapped.contains(0);
+        fail();
+      } catch (IllegalStateException e) {
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testEmptyAndCorruptFiles() throws IOException {
+    Path file = File.createTempFile("avltree", ".map").toPath();
+    try {
+      MappedAvlTree.write(new AvlTree<Long>(), file);
+      MappedAvlTree mapped = MappedAvlTree.open(file);
+      assertTrue(mapped.isEmpty());
+      assertFalse(mapped.contains(1));
+      assertEquals(0, mapped.rank(1));
+
+      Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+      try {
+        MappedAvlTree.open(file);
+        fail();
+      } catch (StreamCorruptedException e) {
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testRejectsOtherOrderings() throws IOException {
+    Path file = File.createTempFile("avltree", ".map").toPath();
+    try {
+      AvlTree<Long> tree = new AvlTree<Long>(KeyComparators.LONG);
+      tree.insert(2L);
+      tree.insert(1L);
+      MappedAvlTree.write(tree, file);
+      try (MappedAvlTree mapped = MappedAvlTree.open(file)) {
+        assertTrue(mapped.contains(1));
+      }
+
+      tree = new AvlTree<Long>(Collections.<Long>reverseOrder());
+      tree.insert(2L);
+      try {
+        MappedAvlTree.write(tree, file);
+        fail();
+      } catch (IllegalArgumentException e) {
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Map a copy of a file whose record t has one child link replaced.
+   */
+  private static MappedAvlTree corrupt(byte[] data, Path file, int t, int field, int link) throws IOException {
+    byte[] copy = data.clone();
+    ByteBuffer.wrap(copy).putInt(16 + 16 * t + field, link);
+    Files.write(file, copy);
+    return MappedAvlTree.open(file);
+  }
+
+  private static void assertCorrupt(MappedAvlTree mapped, long x) {
+    try {
+      mapped.contains(x);
+      fail();
+    } catch (UncheckedIOException e) {
+      assertTrue(e.getCause() instanceof StreamCorruptedException);
+    }
+    try {
+      mapped.rank(x);
+      fail();
+    } catch (UncheckedIOException e) {
+      assertTrue(e.getCause() instanceof StreamCorruptedException);
+    }
+  }
+
+  @Test
+  public void testRejectsCorruptLinks() throws IOException {
+    final int LEFT = 8, RIGHT = 12;
+    Path file = File.createTempFile("avltree", ".map").toPath();
+    try {
+      AvlTree<Long> tree = new AvlTree<Long>();
+      for (long k = 10; k <= 70; k += 10)
+        tree.insert(k);
+      MappedAvlTree.write(tree, file);
+      byte[] data = Files.readAllBytes(file);
+      // Keys 10..70 are records 0..6, rooted at 3 with children 1 and 5
+
+      // A link to the record itself, or past the end of the file
+      assertCorrupt(corrupt(data, file, 3, LEFT, 3), 5);
+      assertCorrupt(corrupt(data, file, 3, RIGHT, 100), 75);
+      assertCorrupt(corrupt(data, file, 3, LEFT, -2), 5);
+
+      // A link back up to an ancestor would otherwise cycle forever
+      assertCorrupt(corrupt(data, file, 1, RIGHT, 3), 25);
+      // A link into the other subtree of an ancestor
+      assertCorrupt(corrupt(data, file, 5, LEFT, 2), 45);
+
+      // Links off the search path are not followed
+      MappedAvlTree mapped = corrupt(data, file, 5, LEFT, 2);
+      assertTrue(mapped.contains(20));
+      assertEquals(2, mapped.rank(30));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testFailedWriteRemovesTemporaryFile() throws IOException {
+    Path dir = Files.createTempDirectory("avltree");
+    Path file = dir.resolve("tree.map"), tmp = dir.resolve("tree.map.tmp");
+    try {
+      // A non-empty directory cannot be replaced by the rename
+      Files.createDirectory(file);
+      Files.createFile(file.resolve("child"));
+      AvlTree<Long> tree = new AvlTree<Long>();
+      tree.insert(1L);
+      try {
+        MappedAvlTree.write(tree, file);
+        fail();
+      } catch (IOException e) {
+      }
+      assertFalse(Files.exists(tmp));
+    } finally {
+      Files.delete(file.resolve("child"));
+      Files.delete(file);
+      Files.delete(dir);
+    }
+  }
+}
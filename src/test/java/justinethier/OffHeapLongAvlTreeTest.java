@@ -0,0 +1,45 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class OffHeapLongAvlTreeTest {
+  @Test
+  public void testInsertRemove() {
+    OffHeapLongAvlTree tree = new OffHeapLongAvlTree();
+    TreeSet<Long> expected = new TreeSet<Long>();
+    Random r = new Random(3);
+    try {
+      // Enough keys to span several chunks
+      for (int i = 0; i < 200000; i++) {
+        long x = r.nextInt(300000);
+        assertEquals(expected.add(x), tree.insert(x));
+      }
+      for (int i = 0; i < 100000; i++) {
+        long x = r.nextInt(300000);
+        assertEquals(expected.remove(x), tree.remove(x));
+      }
+      assertEquals(expected.size(), tree.size());
+      assertEquals(expected.first().longValue(), tree.findMin());
+      assertEquals(expected.last().longValue(), tree.findMax());
+      for (long x = 0; x < 300000; x += 7)
+        assertEquals(expected.contains(x), tree.contains(x));
+    } finally {
+      tree.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUseAfterClose() {
+    OffHeapLongAvlTree tree = new OffHeapLongAvlTree();
+    tree.insert(1);
+    tree.close();
+    tree.close();
+    tree.contains(1);
+  }
+}
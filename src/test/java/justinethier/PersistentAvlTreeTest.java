@@ -0,0 +1,72 @@
+package justinethier;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+public class PersistentAvlTreeTest {
+  private List<Integer> toList(Iterable<Integer> it) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (Integer x : it)
+      list.add(x);
+    return list;
+  }
+
+  @Test
+  public void testOldVersionsAreUnchanged() {
+    List<PersistentAvlTree<Integer>> versions = new ArrayList<PersistentAvlTree<Integer>>();
+    List<TreeSet<Integer>> expected = new ArrayList<TreeSet<Integer>>();
+    PersistentAvlTree<Integer> tree = PersistentAvlTree.empty();
+    TreeSet<Integer> set = new TreeSet<Integer>();
+    Random r = new Random(13);
+
+    for (int i = 0; i < 2000; i++) {
+      Integer x = r.nextInt(500);
+      PersistentAvlTree<Integer> next;
+      if (r.nextInt(3) == 0) {
+        next = tree.remove(x);
+        assertEquals(set.remove(x), next != tree);
+      } else {
+        next = tree.insert(x);
+        assertEquals(set.add(x), next != tree);
+      }
+      tree = next;
+      if (i % 100 == 0) {
+        versions.add(tree);
+        expected.add(new TreeSet<Integer>(set));
+      }
+    }
+
+    for (int i = 0; i < versions.size(); i++) {
+      PersistentAvlTree<Integer> version = versions.get(i);
+      assertEquals(new ArrayList<Integer>(expected.get(i)), toList(version));
+      assertEquals(expected.get(i).size(), version.size());
+      if (!expected.get(i).isEmpty()) {
+        assertEquals(expected.get(i).first(), version.findMin());
+        assertEquals(expected.get(i).last(), version.findMax());
+      }
+    }
+  }
+
+  @Test
+  public void testSnapshotOfConcurrentTree() {
+    ConcurrentAvlTree<Integer> tree = new ConcurrentAvlTree<Integer>();
+    for (int i = 0; i < 10; i++)
+      tree.insert(i);
+    PersistentAvlTree<Integer> snapshot = tree.snapshot();
+    tree.remove(3);
+    tree.insert(42);
+
+    assertTrue(snapshot.contains(3));
+    assertFalse(snapshot.contains(42));
+    assertEquals(10, snapshot.size());
+    assertFalse(tree.contains(3));
+    assertTrue(tree.contains(42));
+  }
+}